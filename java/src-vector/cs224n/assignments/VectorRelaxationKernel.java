@@ -0,0 +1,104 @@
+package cs224n.assignments;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A RelaxationKernel using the JDK Vector API.  The parents of one child
+ * pair (or unary child) are all distinct, so a whole vector of them can
+ * be gathered, compared with the new scores and scattered back under the
+ * mask of improved lanes without any lane conflicts.  Each lane does the
+ * same single addition and strict comparison as the scalar kernel, so the
+ * chart comes out bit-identical.  Rule groups shorter than a vector, and
+ * the tail of longer ones, take the scalar loop.
+ *
+ * This class is compiled from src-vector, and needs
+ * --add-modules jdk.incubator.vector both to compile and to run;
+ * CKYParser falls back to the scalar kernel when it cannot load it.
+ */
+public class VectorRelaxationKernel implements RelaxationKernel {
+	static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+	CompiledGrammar grammar;
+	int lanes;
+	// backpointer of each pair rule with split 0, in pairRule order
+	long[] pairBackpointers;
+	long[] unaryBackpointers;
+
+	public void relaxBinaryRules(double[] scores, long[] backpointers, int base, int p, double childScore, int split) {
+		int i = grammar.pairRuleStart[p];
+		int end = grammar.pairRuleStart[p + 1];
+		if (end - i >= lanes) {
+			DoubleVector childScores = DoubleVector.broadcast(DOUBLES, childScore);
+			// binaryBackpointer(rule, split) is binaryBackpointer(rule, 0) | splitBits
+			long splitBits = Chart.binaryBackpointer(-1, split);
+			for (; i + lanes <= end; i += lanes) {
+				DoubleVector newScores = childScores.add(DoubleVector.fromArray(DOUBLES, grammar.pairScore, i));
+				DoubleVector oldScores = DoubleVector.fromArray(DOUBLES, scores, base, grammar.pairParent, i);
+				VectorMask<Double> better = newScores.compare(VectorOperators.LT, oldScores);
+				if (!better.anyTrue()) continue;
+				newScores.intoArray(scores, base, grammar.pairParent, i, better);
+				LongVector.fromArray(LONGS, pairBackpointers, i).or(splitBits)
+						.intoArray(backpointers, base, grammar.pairParent, i, better.cast(LONGS));
+			}
+		}
+		for (; i < end; i++) {
+			double score = childScore + grammar.pairScore[i];
+			int parent = base + grammar.pairParent[i];
+			if (score < scores[parent]) {
+				scores[parent] = score;
+				backpointers[parent] = Chart.binaryBackpointer(grammar.pairRule[i], split);
+			}
+		}
+	}
+
+	public void relaxUnaryRules(double[] scores, long[] backpointers, int base, int child, double childScore) {
+		int r = grammar.unaryByChildStart[child];
+		int end = grammar.unaryByChildStart[child + 1];
+		if (end - r >= lanes) {
+			DoubleVector childScores = DoubleVector.broadcast(DOUBLES, childScore);
+			for (; r + lanes <= end; r += lanes) {
+				DoubleVector newScores = childScores.add(DoubleVector.fromArray(DOUBLES, grammar.unaryScore, r));
+				DoubleVector oldScores = DoubleVector.fromArray(DOUBLES, scores, base, grammar.unaryParent, r);
+				VectorMask<Double> better = newScores.compare(VectorOperators.LT, oldScores);
+				if (!better.anyTrue()) continue;
+				newScores.intoArray(scores, base, grammar.unaryParent, r, better);
+				LongVector.fromArray(LONGS, unaryBackpointers, r)
+						.intoArray(backpointers, base, grammar.unaryParent, r, better.cast(LONGS));
+			}
+		}
+		for (; r < end; r++) {
+			double score = childScore + grammar.unaryScore[r];
+			int parent = base + grammar.unaryParent[r];
+			if (score < scores[parent]) {
+				scores[parent] = score;
+				backpointers[parent] = Chart.unaryBackpointer(r);
+			}
+		}
+	}
+
+	public String toString() {
+		return "vector(" + lanes + " lanes)";
+	}
+
+	/* Throws UnsupportedOperationException when the platform has no useful
+	 * vector shape, so that the caller falls back to the scalar kernel. */
+	public VectorRelaxationKernel(CompiledGrammar grammar) {
+		if (DOUBLES.length() < 2 || DOUBLES.length() != LONGS.length())
+			throw new UnsupportedOperationException("no usable vector species");
+		this.grammar = grammar;
+		this.lanes = DOUBLES.length();
+		pairBackpointers = new long[grammar.pairRule.length];
+		for (int i = 0; i < pairBackpointers.length; i++) {
+			pairBackpointers[i] = Chart.binaryBackpointer(grammar.pairRule[i], 0);
+		}
+		unaryBackpointers = new long[grammar.unaryParent.length];
+		for (int r = 0; r < unaryBackpointers.length; r++) {
+			unaryBackpointers[r] = Chart.unaryBackpointer(r);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package cs224n.assignments;
+
+import cs224n.ling.Tree;
+import cs224n.util.IndexedPriorityQueue;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An agenda-based A* parser.  Edges (begin, end, symbol) are popped in
+ * order of inside cost plus an outside estimate: the SX context-summary
+ * estimate of Klein and Manning (2003), which is the best outside cost
+ * of the symbol given only the number of words to its left and right,
+ * with every word scored by its best possible tagging.  The estimate
+ * never exceeds the true outside cost, so the first time ROOT over the
+ * whole sentence is popped its derivation is the Viterbi parse, usually
+ * long before the chart is full.  Estimates are computed on first use
+ * and recomputed for longer sentences as they arrive.
+ *
+ * The estimates for sentences of up to L words hold one double per
+ * symbol for each of the L(L+1)/2 contexts, so they grow with the
+ * square of the longest sentence.  Sentences longer than
+ * maxEstimateLength are therefore parsed by exhaustive CKY, as are
+ * sentences with no parse, for which CKYParser builds its fallback
+ * tree from the lexical cells.
+ */
+public class AStarParser extends CKYParser {
+
+	int maxEstimateLength = 100;
+	double[] bestTagScores;
+	volatile OutsideEstimates estimates;
+
+	private final ThreadLocal<AgendaChart> agendaCharts = new ThreadLocal<AgendaChart>() {
+		protected AgendaChart initialValue() {
+			return new AgendaChart();
+		}
+	};
+
+	void setGrammar(CompiledGrammar grammar) {
+		super.setGrammar(grammar);
+		bestTagScores = new double[grammar.tags.length];
+		for (int t = 0; t < bestTagScores.length; t++) {
+			bestTagScores[t] = grammar.lexicon.bestNegLogScoreTagging(grammar.tagNames[t]);
+		}
+		estimates = null;
+	}
+
+	public synchronized void setMaxEstimateLength(int maxEstimateLength) {
+		this.maxEstimateLength = maxEstimateLength;
+		estimates = null;
+	}
+
+	public Tree<String> getBestParse(List<String> sentence) {
+		int n = sentence.size();
+		if (n > maxEstimateLength)
+			return super.getBestParse(sentence);
+		OutsideEstimates estimates = getEstimates(n);
+		int numSymbols = grammar.numSymbols();
+		AgendaChart chart = agendaCharts.get();
+		chart.reset(n, numSymbols);
+		double[] scores = chart.scores;
+		boolean[] finished = chart.finished;
+		IndexedPriorityQueue agenda = chart.agenda;
+		int[] cellBegin = chart.cellBegin;
+		int[] cellEnd = chart.cellEnd;
+
+		for (int i = 0; i < n; i++) {
+			int wordId = grammar.lexicon.getWordId(sentence.get(i));
+			double[] tagScores = grammar.lexicon.getTagScores(wordId);
+			for (int t : grammar.lexicon.getPossibleTags(wordId)) {
+				discover(chart, finished, agenda, estimates, i, i + 1, grammar.tags[t], tagScores[t], Chart.LEXICAL);
+			}
+		}
+		int goal = chart.offset(0, n) + grammar.rootSymbol;
+		while (agenda.hasNext()) {
+			int edge = agenda.next();
+			finished[edge] = true;
+			if (edge == goal) break;
+			int cell = edge / numSymbols;
+			int symbol = edge % numSymbols;
+			int begin = cellBegin[cell];
+			int end = cellEnd[cell];
+			double score = scores[edge];
+			// as in CKYParser.relaxUnaries, unaries never chain: the
+			// closure already holds a rule for the whole chain
+			if (!Chart.isUnary(chart.backpointers[edge])) {
+				chart.preBackpointers[edge] = chart.backpointers[edge];
+				for (int r = grammar.unaryByChildStart[symbol]; r < grammar.unaryByChildStart[symbol + 1]; r++) {
+					discover(chart, finished, agenda, estimates, begin, end, grammar.unaryParent[r],
+							score + grammar.unaryScore[r], Chart.unaryBackpointer(r));
+				}
+			}
+			for (int r = grammar.binaryByLeftStart[symbol]; r < grammar.binaryByLeftStart[symbol + 1]; r++) {
+				int right = grammar.binaryRight[r];
+				for (int rightEnd = end + 1; rightEnd <= n; rightEnd++) {
+					int rightEdge = chart.offset(end, rightEnd) + right;
+					if (!finished[rightEdge]) continue;
+					discover(chart, finished, agenda, estimates, begin, rightEnd, grammar.binaryParent[r],
+							score + scores[rightEdge] + grammar.binaryScore[r], Chart.binaryBackpointer(r, end));
+				}
+			}
+			for (int i = grammar.binaryByRightStart[symbol]; i < grammar.binaryByRightStart[symbol + 1]; i++) {
+				int r = grammar.binaryRulesByRight[i];
+				int left = grammar.binaryLeft[r];
+				for (int leftBegin = 0; leftBegin < begin; leftBegin++) {
+					int leftEdge = chart.offset(leftBegin, begin) + left;
+					if (!finished[leftEdge]) continue;
+					discover(chart, finished, agenda, estimates, leftBegin, end, grammar.binaryParent[r],
+							scores[leftEdge] + score + grammar.binaryScore[r], Chart.binaryBackpointer(r, begin));
+				}
+			}
+		}
+		// with no parse, edges the estimates ruled out were never
+		// scored, so the lexical cells are not complete
+		if (!finished[goal])
+			return super.getBestParse(sentence);
+		return buildTree(sentence, chart);
+	}
+
+	/* Records a derivation of an edge, queueing the edge if this is the
+	 * best derivation found so far and the edge can be part of a parse. */
+	private void discover(Chart chart, boolean[] finished, IndexedPriorityQueue agenda,
+			OutsideEstimates estimates, int begin, int end, int symbol, double score, long backpointer) {
+		int edge = chart.offset(begin, end) + symbol;
+		if (finished[edge] || score >= chart.scores[edge]) return;
+		double outsideScore = estimates.get(begin, chart.length - end, symbol);
+		if (outsideScore == Double.POSITIVE_INFINITY) return;
+		chart.scores[edge] = score;
+		chart.backpointers[edge] = backpointer;
+		agenda.promote(edge, -(score + outsideScore));
+	}
+
+	OutsideEstimates getEstimates(int length) {
+		OutsideEstimates current = estimates;
+		if (current != null && current.maxLength >= length)
+			return current;
+		synchronized (this) {
+			if (estimates == null || estimates.maxLength < length) {
+				int maxLength = (estimates == null ? length : Math.max(length, estimates.maxLength * 3 / 2));
+				maxLength = Math.min(maxLength, Math.max(length, maxEstimateLength));
+				estimates = new OutsideEstimates(grammar, bestTagScores, maxLength);
+			}
+			return estimates;
+		}
+	}
+
+	/* A chart with the agenda, the finished flags of its edges, and
+	 * the span of every cell, all reused from sentence to sentence. */
+	static class AgendaChart extends Chart {
+		boolean[] finished = new boolean[0];
+		IndexedPriorityQueue agenda = new IndexedPriorityQueue(0);
+		int[] cellBegin = new int[0];
+		int[] cellEnd = new int[0];
+
+		void reset(int length, int numSymbols) {
+			super.reset(length, numSymbols);
+			if (finished.length < scores.length) {
+				finished = new boolean[scores.length];
+				agenda = new IndexedPriorityQueue(scores.length);
+			} else {
+				Arrays.fill(finished, 0, size(), false);
+				agenda.clear();
+			}
+			int numCells = length * (length + 1) / 2;
+			if (cellBegin.length < numCells) {
+				cellBegin = new int[numCells];
+				cellEnd = new int[numCells];
+			}
+			for (int begin = 0; begin < length; begin++) {
+				for (int end = begin + 1; end <= length; end++) {
+					cellBegin[cellIndex(length, begin, end)] = begin;
+					cellEnd[cellIndex(length, begin, end)] = end;
+				}
+			}
+		}
+	}
+
+	/**
+	 * SX outside estimates for sentences of up to maxLength words:
+	 * get(left, right, symbol) is the lowest outside cost of the symbol
+	 * over any words with left words before it and right words after.
+	 * Only contexts with left + right < maxLength occur, so they are
+	 * stored by context size, maxLength(maxLength+1)/2 rows of
+	 * numSymbols.
+	 */
+	static class OutsideEstimates {
+		int maxLength;
+		int numSymbols;
+		double[] outside;
+
+		double get(int left, int right, int symbol) {
+			return outside[row(left, right) * numSymbols + symbol];
+		}
+
+		/* The row of a context: the rows for context size c start at
+		 * c(c+1)/2, ordered by left. */
+		static int row(int left, int right) {
+			int context = left + right;
+			return context * (context + 1) / 2 + left;
+		}
+
+		OutsideEstimates(CompiledGrammar grammar, double[] bestTagScores, int maxLength) {
+			this.maxLength = maxLength;
+			this.numSymbols = grammar.numSymbols();
+			// best inside cost of each symbol over any span of each length
+			double[][] inside = new double[maxLength][numSymbols];
+			for (int length = 1; length < maxLength; length++) {
+				Arrays.fill(inside[length], Double.POSITIVE_INFINITY);
+				if (length == 1) {
+					for (int t = 0; t < grammar.tags.length; t++) {
+						inside[1][grammar.tags[t]] = bestTagScores[t];
+					}
+				}
+				for (int split = 1; split < length; split++) {
+					for (int r = 0; r < grammar.binaryParent.length; r++) {
+						double score = inside[split][grammar.binaryLeft[r]]
+								+ inside[length - split][grammar.binaryRight[r]] + grammar.binaryScore[r];
+						if (score < inside[length][grammar.binaryParent[r]])
+							inside[length][grammar.binaryParent[r]] = score;
+					}
+				}
+				double[] binaryInside = inside[length].clone();
+				for (int r = 0; r < grammar.unaryParent.length; r++) {
+					double score = binaryInside[grammar.unaryChild[r]] + grammar.unaryScore[r];
+					if (score < inside[length][grammar.unaryParent[r]])
+						inside[length][grammar.unaryParent[r]] = score;
+				}
+			}
+
+			outside = new double[maxLength * (maxLength + 1) / 2 * numSymbols];
+			Arrays.fill(outside, Double.POSITIVE_INFINITY);
+			outside[grammar.rootSymbol] = 0.0;
+			for (int context = 0; context < maxLength; context++) {
+				for (int left = 0; left <= context; left++) {
+					int right = context - left;
+					int base = row(left, right) * numSymbols;
+					for (int r = 0; r < grammar.binaryParent.length; r++) {
+						int parent = grammar.binaryParent[r];
+						// as left child, the right sibling takes k of the right words
+						for (int k = 1; k <= right; k++) {
+							double score = outside[row(left, right - k) * numSymbols + parent]
+									+ grammar.binaryScore[r] + inside[k][grammar.binaryRight[r]];
+							if (score < outside[base + grammar.binaryLeft[r]])
+								outside[base + grammar.binaryLeft[r]] = score;
+						}
+						// as right child, the left sibling takes k of the left words
+						for (int k = 1; k <= left; k++) {
+							double score = outside[row(left - k, right) * numSymbols + parent]
+									+ grammar.binaryScore[r] + inside[k][grammar.binaryLeft[r]];
+							if (score < outside[base + grammar.binaryRight[r]])
+								outside[base + grammar.binaryRight[r]] = score;
+						}
+					}
+					double[] binaryOutside = Arrays.copyOfRange(outside, base, base + numSymbols);
+					for (int r = 0; r < grammar.unaryParent.length; r++) {
+						double score = binaryOutside[grammar.unaryParent[r]] + grammar.unaryScore[r];
+						if (score < outside[base + grammar.unaryChild[r]])
+							outside[base + grammar.unaryChild[r]] = score;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,445 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.Grammar;
+import cs224n.assignments.PCFGParserTester.KBestParser;
+import cs224n.assignments.PCFGParserTester.Lexicon;
+import cs224n.assignments.PCFGParserTester.StreamingParser;
+import cs224n.assignments.PCFGParserTester.TreeAnnotations;
+import cs224n.ling.Tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A CKY parser over a CompiledGrammar.  Symbols are ints and the chart
+ * is a single flat double[] holding, for every (begin, end, symbol),
+ * the cost (negative log probability) of the best derivation, with
+ * POSITIVE_INFINITY marking symbols that cannot cover the span.  Trees
+ * come out the same as from PCFGParser (up to ties), so the two can be
+ * compared directly with -parser.
+ */
+public class CKYParser implements KBestParser, StreamingParser {
+
+	// Number of times a failed beam is widened before parsing without one.
+	static final int MAX_BEAM_WIDENINGS = 3;
+
+	CompiledGrammar grammar;
+	RelaxationKernel kernel;
+	boolean vectorKernel = true;
+	int beamSize = 0;
+	double beamWidth = Double.POSITIVE_INFINITY;
+	boolean splitBounds = false;
+
+	// one chart per parsing thread, reset for each sentence
+	private final ThreadLocal<Chart> charts = new ThreadLocal<Chart>() {
+		protected Chart initialValue() {
+			return new Chart();
+		}
+	};
+	private final ThreadLocal<double[]> unaryChildScores = new ThreadLocal<double[]>();
+
+	/* Keeps at most beamSize entries per cell; 0 means no limit. */
+	public void setBeamSize(int beamSize) {
+		this.beamSize = beamSize;
+	}
+
+	/* Drops entries whose cost exceeds the cell's best by more than
+	 * beamWidth (a log probability margin); infinite means no limit. */
+	public void setBeamWidth(double beamWidth) {
+		this.beamWidth = beamWidth;
+	}
+
+	/* Uses the SIMD relaxation kernel when it has been compiled and the
+	 * jdk.incubator.vector module is present (the default), or always
+	 * the scalar one.  Both give bit-identical charts. */
+	public void setVectorKernel(boolean vectorKernel) {
+		this.vectorKernel = vectorKernel;
+		if (grammar != null)
+			kernel = newRelaxationKernel(grammar, vectorKernel);
+	}
+
+	/* Restricts the split points tried for each left symbol and child
+	 * pair to those where both children have been built, using the
+	 * narrow and wide bounds of Chart. */
+	public void setSplitBounds(boolean splitBounds) {
+		this.splitBounds = splitBounds;
+	}
+
+	public void train(List<Tree<String>> trainTrees) {
+		train(trainTrees.iterator());
+	}
+
+	public void train(Iterator<Tree<String>> trainTrees) {
+		ModelTally tally = ParallelTraining.count(trainTrees, new ModelTally(false));
+		setGrammar(new CompiledGrammar(new Grammar(tally.rules), new Lexicon(tally.taggings)));
+	}
+
+	/* The grammar and lexicon counts of a run of training trees, which
+	 * are annotated as they are counted, and optionally those of their
+	 * projections to the coarse grammar of CoarseToFineParser. */
+	static class ModelTally extends ParallelTraining.Tally<ModelTally> {
+		boolean coarse;
+		Grammar.RuleTally rules = new Grammar.RuleTally();
+		Lexicon.TaggingTally taggings = new Lexicon.TaggingTally();
+		Grammar.RuleTally coarseRules;
+		Lexicon.TaggingTally coarseTaggings;
+
+		ModelTally newTally() {
+			return new ModelTally(coarse);
+		}
+
+		void add(Tree<String> tree) {
+			Tree<String> annotatedTree = TreeAnnotations.annotateTree(tree);
+			rules.add(annotatedTree);
+			taggings.add(annotatedTree);
+			if (coarse) {
+				Tree<String> coarseTree = TreeAnnotations.projectTree(annotatedTree);
+				coarseRules.add(coarseTree);
+				coarseTaggings.add(coarseTree);
+			}
+		}
+
+		void merge(ModelTally later) {
+			rules.merge(later.rules);
+			taggings.merge(later.taggings);
+			if (coarse) {
+				coarseRules.merge(later.coarseRules);
+				coarseTaggings.merge(later.coarseTaggings);
+			}
+		}
+
+		ModelTally(boolean coarse) {
+			this.coarse = coarse;
+			if (coarse) {
+				coarseRules = new Grammar.RuleTally();
+				coarseTaggings = new Lexicon.TaggingTally();
+			}
+		}
+	}
+
+	void setGrammar(CompiledGrammar grammar) {
+		this.grammar = grammar;
+		this.kernel = newRelaxationKernel(grammar, vectorKernel);
+	}
+
+	/* The name of the SIMD kernel, built from src-vector only when the
+	 * JDK ships jdk.incubator.vector; see build.xml. */
+	static final String VECTOR_KERNEL_CLASS = "cs224n.assignments.VectorRelaxationKernel";
+
+	/* Returns the SIMD kernel for a grammar if asked for and loadable,
+	 * and otherwise the scalar one.  Loading fails without the compiled
+	 * class or without --add-modules jdk.incubator.vector at run time. */
+	static RelaxationKernel newRelaxationKernel(CompiledGrammar grammar, boolean vector) {
+		if (vector) {
+			try {
+				Class<?> kernelClass = Class.forName(VECTOR_KERNEL_CLASS);
+				return (RelaxationKernel) kernelClass.getConstructor(CompiledGrammar.class).newInstance(grammar);
+			} catch (Exception e) {
+				// fall through to the scalar kernel
+			} catch (LinkageError e) {
+				// fall through to the scalar kernel
+			}
+		}
+		return new ScalarRelaxationKernel(grammar);
+	}
+
+	/* Writes the trained grammars to a model file; see ModelFile. */
+	public void saveModel(File file) throws IOException {
+		ModelFile.write(file, getModelGrammars());
+	}
+
+	/* Replaces training by reading a model file written by the same
+	 * kind of parser. */
+	public void loadModel(File file) throws IOException {
+		setModelGrammars(ModelFile.read(file));
+	}
+
+	List<CompiledGrammar> getModelGrammars() {
+		return Collections.singletonList(grammar);
+	}
+
+	void setModelGrammars(List<CompiledGrammar> grammars) throws IOException {
+		if (grammars.size() != 1)
+			throw new IOException("expected 1 grammar in model file, found " + grammars.size());
+		setGrammar(grammars.get(0));
+	}
+
+	/* Parses within the beam.  If ROOT is not reached, the beam is
+	 * widened and the sentence parsed again, and after
+	 * MAX_BEAM_WIDENINGS failures it is parsed with no beam at all. */
+	public Tree<String> getBestParse(List<String> sentence) {
+		int n = sentence.size();
+		int size = beamSize;
+		double width = beamWidth;
+		for (int attempt = 0; ; attempt++) {
+			if (attempt == MAX_BEAM_WIDENINGS) {
+				size = 0;
+				width = Double.POSITIVE_INFINITY;
+			}
+			Chart chart = charts.get();
+			chart.reset(n, grammar.numSymbols());
+			chart.setBeam(size, width);
+			if (splitBounds) chart.resetSplitBounds();
+			fillChart(sentence, chart);
+			if (!chart.hasBeam() || chart.scores[chart.offset(0, n) + grammar.rootSymbol] != Double.POSITIVE_INFINITY)
+				return buildTree(sentence, chart);
+			size *= 4;
+			width *= 2;
+		}
+	}
+
+	void fillChart(List<String> sentence, Chart chart) {
+		int n = sentence.size();
+		for (int i = 0; i < n; i++) {
+			fillLexicalCell(sentence.get(i), chart, i);
+		}
+		for (int span = 2; span <= n; span++) {
+			for (int begin = 0; begin <= n - span; begin++) {
+				fillCell(chart, begin, begin + span);
+			}
+		}
+	}
+
+	void fillLexicalCell(String word, Chart chart, int position) {
+		double[] scores = chart.scores;
+		int base = chart.offset(position, position + 1);
+		int wordId = grammar.lexicon.getWordId(word);
+		double[] tagScores = grammar.lexicon.getTagScores(wordId);
+		for (int t : grammar.lexicon.getPossibleTags(wordId)) {
+			scores[base + grammar.tags[t]] = tagScores[t];
+			chart.backpointers[base + grammar.tags[t]] = Chart.LEXICAL;
+		}
+		relaxUnaries(chart, base);
+		pruneCell(chart, position, position + 1);
+		if (chart.hasSplitBounds()) chart.updateSplitBounds(position, position + 1);
+	}
+
+	void fillCell(Chart chart, int begin, int end) {
+		if (chart.hasSplitBounds()) {
+			fillCellWithinSplitBounds(chart, begin, end);
+			return;
+		}
+		double[] scores = chart.scores;
+		long[] backpointers = chart.backpointers;
+		int base = chart.offset(begin, end);
+		int numSymbols = grammar.numSymbols();
+		for (int split = begin + 1; split < end; split++) {
+			int leftBase = chart.offset(begin, split);
+			int rightBase = chart.offset(split, end);
+			for (int left = 0; left < numSymbols; left++) {
+				double leftScore = scores[leftBase + left];
+				if (leftScore == Double.POSITIVE_INFINITY) continue;
+				for (int p = grammar.pairByLeftStart[left]; p < grammar.pairByLeftStart[left + 1]; p++) {
+					double rightScore = scores[rightBase + grammar.pairRight[p]];
+					if (rightScore == Double.POSITIVE_INFINITY) continue;
+					kernel.relaxBinaryRules(scores, backpointers, base, p, leftScore + rightScore, split);
+				}
+			}
+		}
+		relaxUnaries(chart, base);
+		pruneCell(chart, begin, end);
+	}
+
+	/* Fills a cell like fillCell(), but for each left symbol and child
+	 * pair tries only the splits where the left child ends somewhere it
+	 * has been built from begin and the right child starts somewhere it
+	 * has been built to end. */
+	void fillCellWithinSplitBounds(Chart chart, int begin, int end) {
+		double[] scores = chart.scores;
+		long[] backpointers = chart.backpointers;
+		int base = chart.offset(begin, end);
+		int numSymbols = grammar.numSymbols();
+		int beginBounds = begin * numSymbols;
+		int endBounds = end * numSymbols;
+		for (int left = 0; left < numSymbols; left++) {
+			int narrowRight = chart.narrowRight[beginBounds + left];
+			if (narrowRight >= end) continue;
+			int wideRight = chart.wideRight[beginBounds + left];
+			for (int p = grammar.pairByLeftStart[left]; p < grammar.pairByLeftStart[left + 1]; p++) {
+				int right = grammar.pairRight[p];
+				int narrowLeft = chart.narrowLeft[endBounds + right];
+				if (narrowLeft < narrowRight) continue;
+				int minSplit = Math.max(narrowRight, chart.wideLeft[endBounds + right]);
+				int maxSplit = Math.min(wideRight, narrowLeft);
+				for (int split = minSplit; split <= maxSplit; split++) {
+					double leftScore = scores[chart.offset(begin, split) + left];
+					if (leftScore == Double.POSITIVE_INFINITY) continue;
+					double rightScore = scores[chart.offset(split, end) + right];
+					if (rightScore == Double.POSITIVE_INFINITY) continue;
+					kernel.relaxBinaryRules(scores, backpointers, base, p, leftScore + rightScore, split);
+				}
+			}
+		}
+		relaxUnaries(chart, base);
+		pruneCell(chart, begin, end);
+		chart.updateSplitBounds(begin, end);
+	}
+
+	/* Called once a cell is complete, before any larger span reads it,
+	 * to apply the chart's beam.  Entries are discarded by setting
+	 * their scores back to POSITIVE_INFINITY; backpointers into
+	 * discarded entries stay valid, since their own backpointers are
+	 * left in place.  Subclasses may discard more.  The cell spanning
+	 * the whole sentence feeds nothing larger, so the beam skips it
+	 * rather than compete ROOT against the symbols below it. */
+	void pruneCell(Chart chart, int begin, int end) {
+		if (!chart.hasBeam() || end - begin == chart.length) return;
+		double[] scores = chart.scores;
+		int base = chart.offset(begin, end);
+		int numSymbols = chart.numSymbols;
+		double bestScore = Double.POSITIVE_INFINITY;
+		int count = 0;
+		for (int s = 0; s < numSymbols; s++) {
+			double score = scores[base + s];
+			if (score == Double.POSITIVE_INFINITY) continue;
+			bestScore = Math.min(bestScore, score);
+			count++;
+		}
+		double threshold = bestScore + chart.beamWidth;
+		int maxEntries = (chart.beamSize > 0 ? chart.beamSize : numSymbols);
+		if (count > maxEntries) {
+			double[] finiteScores = chart.sortBuffer;
+			int i = 0;
+			for (int s = 0; s < numSymbols; s++) {
+				if (scores[base + s] != Double.POSITIVE_INFINITY)
+					finiteScores[i++] = scores[base + s];
+			}
+			Arrays.sort(finiteScores, 0, count);
+			threshold = Math.min(threshold, finiteScores[maxEntries - 1]);
+		}
+		// ties with the last entry in the beam are kept in symbol order
+		int kept = 0;
+		for (int s = 0; s < numSymbols; s++) {
+			double score = scores[base + s];
+			if (score == Double.POSITIVE_INFINITY) continue;
+			if (score > threshold || kept == maxEntries)
+				scores[base + s] = Double.POSITIVE_INFINITY;
+			else
+				kept++;
+		}
+	}
+
+	/* Applies the closed unary rules to one cell in a single pass over
+	 * the scores the cell had before it, so that unaries never chain;
+	 * the closure already holds the best chain.  The entries from
+	 * before the pass are kept in the chart's preBackpointers. */
+	void relaxUnaries(Chart chart, int base) {
+		double[] scores = chart.scores;
+		long[] backpointers = chart.backpointers;
+		long[] preBackpointers = chart.preBackpointers;
+		int numSymbols = grammar.numSymbols();
+		double[] childScores = getUnaryChildScores(numSymbols);
+		for (int s = 0; s < numSymbols; s++) {
+			childScores[s] = scores[base + s];
+			preBackpointers[base + s] =
+					(childScores[s] == Double.POSITIVE_INFINITY ? Chart.NONE : backpointers[base + s]);
+		}
+		for (int child = 0; child < numSymbols; child++) {
+			double childScore = childScores[child];
+			if (childScore == Double.POSITIVE_INFINITY) continue;
+			kernel.relaxUnaryRules(scores, backpointers, base, child, childScore);
+		}
+	}
+
+	/* The buffer for a cell's scores before its unaries, one per
+	 * filling thread, as ParallelCKYParser fills cells concurrently. */
+	private double[] getUnaryChildScores(int numSymbols) {
+		double[] childScores = unaryChildScores.get();
+		if (childScores == null || childScores.length < numSymbols) {
+			childScores = new double[numSymbols];
+			unaryChildScores.set(childScores);
+		}
+		return childScores;
+	}
+
+	Tree<String> buildTree(List<String> sentence, Chart chart) {
+		int n = sentence.size();
+		if (chart.scores[chart.offset(0, n) + grammar.rootSymbol] == Double.POSITIVE_INFINITY)
+			return buildFlatTree(sentence, chart);
+		int root = chart.offset(0, n) + grammar.rootSymbol;
+		Tree<String> annotated = recursiveBuildTree(sentence, chart, 0, n, grammar.rootSymbol,
+				chart.backpointers[root]);
+		return TreeAnnotations.unAnnotateTree(annotated);
+	}
+
+	/* Lists the k best distinct parses of the sentence, best first, or
+	 * all of them if there are fewer.  The chart is filled exhaustively,
+	 * without beam or coarse pruning, and derivations under the
+	 * annotated grammar are then enumerated lazily by KBestExtractor,
+	 * skipping those that unannotate to a tree already listed, so more
+	 * than k derivations may be visited.  The first parse follows the
+	 * chart's backpointers, so with no beam it is getBestParse()'s. */
+	public List<Tree<String>> getKBestParses(List<String> sentence, int k) {
+		int n = sentence.size();
+		Chart chart = charts.get();
+		chart.reset(n, grammar.numSymbols());
+		if (splitBounds) chart.resetSplitBounds();
+		fillChart(sentence, chart);
+		List<Tree<String>> parses = new ArrayList<Tree<String>>();
+		if (chart.scores[chart.offset(0, n) + grammar.rootSymbol] == Double.POSITIVE_INFINITY) {
+			parses.add(buildFlatTree(sentence, chart));
+			return parses;
+		}
+		KBestExtractor extractor = new KBestExtractor(grammar, sentence, chart);
+		// Tree has no equals(), so trees are compared by their text
+		Set<String> listed = new HashSet<String>();
+		for (int i = 0; parses.size() < k; i++) {
+			Tree<String> annotated = extractor.getTree(i);
+			if (annotated == null) break;
+			Tree<String> parse = TreeAnnotations.unAnnotateTree(annotated);
+			if (listed.add(parse.toString()))
+				parses.add(parse);
+		}
+		return parses;
+	}
+
+	/* Follows the backpointers down from (begin, end, symbol), given
+	 * its backpointer, so the work is linear in the size of the tree.
+	 * The child of a unary is built from its entry before the unaries. */
+	private Tree<String> recursiveBuildTree(List<String> sentence, Chart chart,
+			int begin, int end, int symbol, long backpointer) {
+		String label = grammar.symbols.get(symbol);
+		if (backpointer == Chart.LEXICAL) {
+			return new Tree<String>(label, Collections.singletonList(new Tree<String>(sentence.get(begin))));
+		}
+		int rule = Chart.rule(backpointer);
+		if (Chart.isUnary(backpointer)) {
+			int child = grammar.unaryChild[rule];
+			Tree<String> subTree = recursiveBuildTree(sentence, chart, begin, end, child,
+					chart.preBackpointers[chart.offset(begin, end) + child]);
+			int[] chain = grammar.unaryChains[rule];
+			for (int i = chain.length - 1; i >= 0; i--) {
+				subTree = new Tree<String>(grammar.symbols.get(chain[i]), Collections.singletonList(subTree));
+			}
+			return new Tree<String>(label, Collections.singletonList(subTree));
+		}
+		int split = Chart.split(backpointer);
+		List<Tree<String>> children = new ArrayList<Tree<String>>();
+		int left = grammar.binaryLeft[rule];
+		int right = grammar.binaryRight[rule];
+		children.add(recursiveBuildTree(sentence, chart, begin, split, left,
+				chart.backpointers[chart.offset(begin, split) + left]));
+		children.add(recursiveBuildTree(sentence, chart, split, end, right,
+				chart.backpointers[chart.offset(split, end) + right]));
+		return new Tree<String>(label, children);
+	}
+
+	/* Used when ROOT cannot be built over the sentence: attaches the
+	 * best tag for each word directly under ROOT. */
+	Tree<String> buildFlatTree(List<String> sentence, Chart chart) {
+		List<Tree<String>> children = new ArrayList<Tree<String>>();
+		for (int i = 0; i < sentence.size(); i++) {
+			int base = chart.offset(i, i + 1);
+			int bestTag = grammar.tags[0];
+			for (int t = 0; t < grammar.tags.length; t++) {
+				if (chart.scores[base + grammar.tags[t]] < chart.scores[base + bestTag])
+					bestTag = grammar.tags[t];
+			}
+			Tree<String> leaf = new Tree<String>(sentence.get(i));
+			children.add(new Tree<String>(grammar.symbols.get(bestTag), Collections.singletonList(leaf)));
+		}
+		Tree<String> tree = new Tree<String>(grammar.symbols.get(grammar.rootSymbol), children);
+		return TreeAnnotations.unAnnotateTree(tree);
+	}
+}
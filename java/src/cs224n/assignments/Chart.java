@@ -0,0 +1,150 @@
+package cs224n.assignments;
+
+import java.util.Arrays;
+
+/**
+ * Flat primitive chart.  Cells (begin, end) with begin < end are laid
+ * out in a triangular array, each cell holding one score per symbol.
+ * Next to every score is a backpointer packing the rule id (plus one)
+ * into the high 32 bits and, in the low bits, either the split point
+ * shifted left by one (binary) or a set low bit (unary).  Zero means
+ * the symbol is a tag scored directly by the lexicon.  Unary rules
+ * are applied to a cell in one pass over the scores it had before the
+ * pass, and preBackpointers keeps each entry's backpointer from then,
+ * or NONE where the entry had no score, so a unary's child is built
+ * from the derivation that was scored.  A chart can be reset for
+ * another sentence, and only allocates when the sentence is longer
+ * than any it has held before.
+ */
+class Chart {
+	static final long LEXICAL = 0L;
+	static final long NONE = -1L;
+
+	int length;
+	int numSymbols;
+	double[] scores = new double[0];
+	long[] backpointers = new long[0];
+	long[] preBackpointers = new long[0];
+	double[] sortBuffer = new double[0];
+	int beamSize = 0;
+	double beamWidth = Double.POSITIVE_INFINITY;
+
+	// Split bounds, indexed by position * numSymbols + symbol: for
+	// each symbol built starting at begin, the nearest and farthest
+	// ends (narrowRight, wideRight), and for each symbol built ending
+	// at end, the nearest and farthest begins (narrowLeft, wideLeft).
+	// A symbol never built there has an empty range.
+	boolean splitBounds = false;
+	int[] narrowRight = new int[0];
+	int[] wideRight = new int[0];
+	int[] narrowLeft = new int[0];
+	int[] wideLeft = new int[0];
+
+	void setBeam(int beamSize, double beamWidth) {
+		this.beamSize = beamSize;
+		this.beamWidth = beamWidth;
+	}
+
+	boolean hasBeam() {
+		return beamSize > 0 || beamWidth != Double.POSITIVE_INFINITY;
+	}
+
+	static long binaryBackpointer(int rule, int split) {
+		return ((long) (rule + 1) << 32) | ((long) split << 1);
+	}
+
+	static long unaryBackpointer(int rule) {
+		return ((long) (rule + 1) << 32) | 1L;
+	}
+
+	static boolean isUnary(long backpointer) {
+		return (backpointer & 1L) != 0;
+	}
+
+	static int rule(long backpointer) {
+		return (int) (backpointer >>> 32) - 1;
+	}
+
+	static int split(long backpointer) {
+		return (int) (backpointer & 0xffffffffL) >>> 1;
+	}
+
+	int offset(int begin, int end) {
+		return cellIndex(length, begin, end) * numSymbols;
+	}
+
+	/* Position of cell (begin, end) among the length * (length + 1) / 2
+	 * cells of a sentence of the given length. */
+	static int cellIndex(int length, int begin, int end) {
+		return begin * (2 * length - begin + 1) / 2 + (end - begin - 1);
+	}
+
+	/* Number of entries used by the current sentence, which may be
+	 * fewer than the arrays hold. */
+	int size() {
+		return length * (length + 1) / 2 * numSymbols;
+	}
+
+	/* Empties the chart for a sentence of the given length, with no
+	 * beam.  Only the scores in use are cleared: backpointers are
+	 * always written along with a finite score. */
+	void reset(int length, int numSymbols) {
+		this.length = length;
+		this.numSymbols = numSymbols;
+		int size = size();
+		if (scores.length < size) {
+			scores = new double[size];
+			backpointers = new long[size];
+			preBackpointers = new long[size];
+		}
+		if (sortBuffer.length < numSymbols)
+			sortBuffer = new double[numSymbols];
+		Arrays.fill(scores, 0, size, Double.POSITIVE_INFINITY);
+		setBeam(0, Double.POSITIVE_INFINITY);
+		splitBounds = false;
+	}
+
+	boolean hasSplitBounds() {
+		return splitBounds;
+	}
+
+	/* Turns on split bounds for the current sentence, with every
+	 * range empty. */
+	void resetSplitBounds() {
+		int size = (length + 1) * numSymbols;
+		if (narrowRight.length < size) {
+			narrowRight = new int[size];
+			wideRight = new int[size];
+			narrowLeft = new int[size];
+			wideLeft = new int[size];
+		}
+		Arrays.fill(narrowRight, 0, size, length + 1);
+		Arrays.fill(wideRight, 0, size, -1);
+		Arrays.fill(narrowLeft, 0, size, -1);
+		Arrays.fill(wideLeft, 0, size, length + 1);
+		splitBounds = true;
+	}
+
+	/* Widens the split bounds by the symbols left in a finished cell.
+	 * Cells filled concurrently never share a begin or an end, so
+	 * they write disjoint bounds. */
+	void updateSplitBounds(int begin, int end) {
+		int base = offset(begin, end);
+		for (int s = 0; s < numSymbols; s++) {
+			if (scores[base + s] == Double.POSITIVE_INFINITY) continue;
+			int beginBound = begin * numSymbols + s;
+			int endBound = end * numSymbols + s;
+			if (end < narrowRight[beginBound]) narrowRight[beginBound] = end;
+			if (end > wideRight[beginBound]) wideRight[beginBound] = end;
+			if (begin > narrowLeft[endBound]) narrowLeft[endBound] = begin;
+			if (begin < wideLeft[endBound]) wideLeft[endBound] = begin;
+		}
+	}
+
+	Chart() {
+	}
+
+	Chart(int length, int numSymbols) {
+		reset(length, numSymbols);
+	}
+}
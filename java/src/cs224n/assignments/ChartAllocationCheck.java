@@ -0,0 +1,102 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.Parser;
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Checks that the CKY parsers parse from reused per-thread charts.  Each
+ * parser is trained on a small built-in treebank and parses one sentence
+ * WARMUP_PARSES times, so that every chart buffer it uses has been
+ * allocated.  Parsing the sentence again must then allocate no more than
+ * the tree it returns, taken as BYTES_PER_NODE for each node: the chart
+ * itself must not allocate at all.  Allocation is counted over every live
+ * thread, so the fork-join workers of ParallelCKYParser are included;
+ * it runs with four workers and fills every span length in parallel, so
+ * that its tasks are used whatever the number of processors.
+ *
+ * Run it with no arguments; it prints a line per parser and exits with
+ * status 1 if any parser allocates more, or if the JVM cannot count
+ * allocated bytes per thread.
+ */
+public class ChartAllocationCheck {
+
+	static final int WARMUP_PARSES = 200;
+
+	// Allowance per node of the returned tree.  Building the annotated
+	// tree from the backpointers and the copies that unAnnotateTree()
+	// makes of it come to about 440 bytes per node on a 64-bit HotSpot
+	// JVM; a chart allocated per sentence costs that much per cell and
+	// symbol.
+	static final long BYTES_PER_NODE = 512;
+
+	static final String[] TRAINING_TREES = {
+		"( (S (NP-SBJ (DT the) (NN dog)) (VP (VBD found) (NP (DT a) (NN cat))) (. .)) )",
+		"( (S (NP-SBJ (DT some) (NN man)) (VP (VBD saw) (NP (DT some) (NN cat))) (. .)) )",
+		"( (S (NP-SBJ (DT the) (JJ old) (NN dog)) (VP (VBD said) (NP (DT every) (JJ lazy) (NN park)) (PP (IN near) (NP (DT the) (NN man)))) (. .)) )",
+		"( (S (NP-SBJ (DT a) (NN report)) (VP (VBD bought) (NP (DT every) (JJ old) (NN park)) (PP (IN in) (NP (DT a) (NN cat)))) (. .)) )",
+		"( (S (NP-SBJ (PRP she)) (VP (VBD ate) (NP (NNS ideas))) (. .)) )",
+		"( (S (PP (IN near) (NP (DT the) (NN park))) (, ,) (NP-SBJ (DT some) (JJ quick) (NN dog)) (VP (VBD ate) (NP (DT the) (NN cat)) (PP (IN with) (NP (DT the) (JJ big) (NN telescope)))) (. .)) )",
+		"( (S (NP-SBJ (NP (NNS dogs)) (PP (IN near) (NP (DT every) (JJ red) (NN telescope)))) (VP (VBD saw) (NP (DT a) (NN man))) (. .)) )",
+		"( (S (NP-SBJ (DT every) (NN idea)) (VP (VBD liked) (SBAR (IN that) (S (NP-SBJ (PRP she)) (VP (VBD ate) (NP (DT the) (NN cat)))))) (. .)) )",
+	};
+
+	static final String SENTENCE = "the old man saw a quick dog near every big park with the telescope .";
+
+	public static void main(String[] args) {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			System.out.println("This JVM cannot count allocated bytes per thread");
+			System.exit(1);
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		allocation.setThreadAllocatedMemoryEnabled(true);
+
+		List<String> sentence = Arrays.asList(SENTENCE.split(" "));
+		Parser[] parsers = { new CKYParser(), new ParallelCKYParser(), new CoarseToFineParser() };
+		((ParallelCKYParser) parsers[1]).setParallelism(4);
+		((ParallelCKYParser) parsers[1]).setSequentialCutoff(2);
+		boolean passed = true;
+		for (Parser parser : parsers) {
+			// training annotates the trees in place, so each parser reads its own
+			parser.train(readTrees());
+			for (int i = 0; i < WARMUP_PARSES; i++) {
+				parser.getBestParse(sentence);
+			}
+			long before = allocatedBytes(allocation);
+			Tree<String> tree = parser.getBestParse(sentence);
+			long allocated = allocatedBytes(allocation) - before;
+			long allowed = BYTES_PER_NODE * tree.getPreOrderTraversal().size();
+			boolean ok = allocated <= allowed;
+			System.out.println((ok ? "ok    " : "FAILED") + "  " + parser.getClass().getSimpleName()
+					+ ": allocated " + allocated + " bytes, allowed " + allowed);
+			passed &= ok;
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+	/* Bytes allocated so far by all live threads. */
+	static long allocatedBytes(com.sun.management.ThreadMXBean allocation) {
+		long total = 0;
+		for (long bytes : allocation.getThreadAllocatedBytes(allocation.getAllThreadIds())) {
+			if (bytes > 0)
+				total += bytes;
+		}
+		return total;
+	}
+
+	static List<Tree<String>> readTrees() {
+		Trees.TreeTransformer<String> normalizer = new Trees.StandardTreeNormalizer();
+		List<Tree<String>> trees = new ArrayList<Tree<String>>();
+		for (String text : TRAINING_TREES) {
+			Trees.PennTreeReader reader = new Trees.PennTreeReader(new StringReader(text));
+			trees.add(normalizer.transformTree(reader.next()));
+		}
+		return trees;
+	}
+}
@@ -0,0 +1,235 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.Grammar;
+import cs224n.assignments.PCFGParserTester.Lexicon;
+import cs224n.assignments.PCFGParserTester.TreeAnnotations;
+import cs224n.ling.Tree;
+import cs224n.math.SloppyMath;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A CKYParser which first parses with a coarse grammar, estimated from
+ * the training trees projected back to base categories (see
+ * TreeAnnotations.projectLabel).  Inside and outside scores under the
+ * coarse grammar give the posterior probability of each coarse symbol
+ * over each span.  The fine chart then keeps only symbols whose
+ * projection has posterior at least the pruning threshold (and which
+ * fit in the beam, if one is set).  If pruning leaves no parse, the
+ * sentence is parsed again as by CKYParser.
+ */
+public class CoarseToFineParser extends CKYParser {
+
+	CompiledGrammar coarseGrammar;
+	int[] coarseSymbolOf;
+	double logPruningThreshold = Math.log(1e-4);
+
+	private final ThreadLocal<PrunedChart> prunedCharts = new ThreadLocal<PrunedChart>() {
+		protected PrunedChart initialValue() {
+			return new PrunedChart();
+		}
+	};
+
+	public void setPruningThreshold(double pruningThreshold) {
+		this.logPruningThreshold = Math.log(pruningThreshold);
+	}
+
+	public void train(Iterator<Tree<String>> trainTrees) {
+		ModelTally tally = ParallelTraining.count(trainTrees, new ModelTally(true));
+		setGrammar(new CompiledGrammar(new Grammar(tally.rules), new Lexicon(tally.taggings)));
+		setCoarseGrammar(new CompiledGrammar(new Grammar(tally.coarseRules), new Lexicon(tally.coarseTaggings)));
+	}
+
+	void setCoarseGrammar(CompiledGrammar coarseGrammar) {
+		this.coarseGrammar = coarseGrammar;
+		coarseSymbolOf = new int[grammar.numSymbols()];
+		for (int s = 0; s < coarseSymbolOf.length; s++) {
+			String coarseLabel = TreeAnnotations.projectLabel(grammar.symbols.get(s));
+			coarseSymbolOf[s] = coarseGrammar.symbols.indexOf(coarseLabel);
+		}
+	}
+
+	List<CompiledGrammar> getModelGrammars() {
+		return Arrays.asList(grammar, coarseGrammar);
+	}
+
+	void setModelGrammars(List<CompiledGrammar> grammars) throws IOException {
+		if (grammars.size() != 2)
+			throw new IOException("expected 2 grammars in model file, found " + grammars.size());
+		setGrammar(grammars.get(0));
+		setCoarseGrammar(grammars.get(1));
+	}
+
+	public Tree<String> getBestParse(List<String> sentence) {
+		int n = sentence.size();
+		PrunedChart chart = prunedCharts.get();
+		chart.reset(n, grammar.numSymbols(), coarseGrammar.numSymbols());
+		if (!computeAllowedSymbols(sentence, chart))
+			return super.getBestParse(sentence);
+		chart.setBeam(beamSize, beamWidth);
+		if (splitBounds) chart.resetSplitBounds();
+		fillChart(sentence, chart);
+		if (chart.scores[chart.offset(0, n) + grammar.rootSymbol] == Double.POSITIVE_INFINITY)
+			return super.getBestParse(sentence);
+		return buildTree(sentence, chart);
+	}
+
+	void pruneCell(Chart chart, int begin, int end) {
+		if (chart instanceof PrunedChart) {
+			PrunedChart prunedChart = (PrunedChart) chart;
+			int base = chart.offset(begin, end);
+			int coarseBase = prunedChart.coarseOffset(begin, end);
+			for (int s = 0; s < chart.numSymbols; s++) {
+				int coarseSymbol = coarseSymbolOf[s];
+				if (coarseSymbol >= 0 && !prunedChart.allowed[coarseBase + coarseSymbol])
+					chart.scores[base + s] = Double.POSITIVE_INFINITY;
+			}
+		}
+		super.pruneCell(chart, begin, end);
+	}
+
+	/* Runs inside-outside with the coarse grammar in the chart's coarse
+	 * buffers and marks each (span, coarse symbol) whose posterior
+	 * clears the threshold.  Returns false if the coarse grammar cannot
+	 * parse the sentence.  Unaries use the closed rules once per cell,
+	 * so the scores approximate the true sums; that is good enough for
+	 * pruning. */
+	boolean computeAllowedSymbols(List<String> sentence, PrunedChart chart) {
+		int n = sentence.size();
+		CompiledGrammar coarse = coarseGrammar;
+		int numSymbols = coarse.numSymbols();
+		int size = n * (n + 1) / 2 * numSymbols;
+		double[] insidePre = chart.insidePre;
+		double[] inside = chart.inside;
+		double[] outsidePre = chart.outsidePre;
+		double[] outside = chart.outside;
+		Arrays.fill(insidePre, 0, size, Double.NEGATIVE_INFINITY);
+		Arrays.fill(inside, 0, size, Double.NEGATIVE_INFINITY);
+		Arrays.fill(outsidePre, 0, size, Double.NEGATIVE_INFINITY);
+		Arrays.fill(outside, 0, size, Double.NEGATIVE_INFINITY);
+
+		for (int i = 0; i < n; i++) {
+			int base = Chart.cellIndex(n, i, i + 1) * numSymbols;
+			int wordId = coarse.lexicon.getWordId(sentence.get(i));
+			double[] tagScores = coarse.lexicon.getTagScores(wordId);
+			for (int t : coarse.lexicon.getPossibleTags(wordId)) {
+				insidePre[base + coarse.tags[t]] = -tagScores[t];
+			}
+			insideUnaries(insidePre, inside, base);
+		}
+		for (int span = 2; span <= n; span++) {
+			for (int begin = 0; begin <= n - span; begin++) {
+				int end = begin + span;
+				int base = Chart.cellIndex(n, begin, end) * numSymbols;
+				for (int split = begin + 1; split < end; split++) {
+					int leftBase = Chart.cellIndex(n, begin, split) * numSymbols;
+					int rightBase = Chart.cellIndex(n, split, end) * numSymbols;
+					for (int left = 0; left < numSymbols; left++) {
+						double leftScore = inside[leftBase + left];
+						if (leftScore == Double.NEGATIVE_INFINITY) continue;
+						for (int p = coarse.pairByLeftStart[left]; p < coarse.pairByLeftStart[left + 1]; p++) {
+							double rightScore = inside[rightBase + coarse.pairRight[p]];
+							if (rightScore == Double.NEGATIVE_INFINITY) continue;
+							for (int i = coarse.pairRuleStart[p]; i < coarse.pairRuleStart[p + 1]; i++) {
+								int parent = base + coarse.pairParent[i];
+								insidePre[parent] = SloppyMath.logAdd(insidePre[parent],
+										leftScore + rightScore - coarse.pairScore[i]);
+							}
+						}
+					}
+				}
+				insideUnaries(insidePre, inside, base);
+			}
+		}
+
+		int rootBase = Chart.cellIndex(n, 0, n) * numSymbols;
+		double logSentenceProbability = inside[rootBase + coarse.rootSymbol];
+		if (logSentenceProbability == Double.NEGATIVE_INFINITY)
+			return false;
+		outside[rootBase + coarse.rootSymbol] = 0.0;
+		for (int span = n; span >= 1; span--) {
+			for (int begin = 0; begin <= n - span; begin++) {
+				int end = begin + span;
+				int base = Chart.cellIndex(n, begin, end) * numSymbols;
+				System.arraycopy(outside, base, outsidePre, base, numSymbols);
+				for (int r = 0; r < coarse.unaryParent.length; r++) {
+					double parentScore = outside[base + coarse.unaryParent[r]];
+					if (parentScore == Double.NEGATIVE_INFINITY) continue;
+					int child = base + coarse.unaryChild[r];
+					outsidePre[child] = SloppyMath.logAdd(outsidePre[child], parentScore - coarse.unaryScore[r]);
+				}
+				for (int split = begin + 1; split < end; split++) {
+					int leftBase = Chart.cellIndex(n, begin, split) * numSymbols;
+					int rightBase = Chart.cellIndex(n, split, end) * numSymbols;
+					for (int left = 0; left < numSymbols; left++) {
+						double leftScore = inside[leftBase + left];
+						if (leftScore == Double.NEGATIVE_INFINITY) continue;
+						for (int r = coarse.binaryByLeftStart[left]; r < coarse.binaryByLeftStart[left + 1]; r++) {
+							double parentScore = outsidePre[base + coarse.binaryParent[r]];
+							if (parentScore == Double.NEGATIVE_INFINITY) continue;
+							int right = rightBase + coarse.binaryRight[r];
+							double rightScore = inside[right];
+							if (rightScore == Double.NEGATIVE_INFINITY) continue;
+							double ruleScore = parentScore - coarse.binaryScore[r];
+							outside[leftBase + left] = SloppyMath.logAdd(outside[leftBase + left], ruleScore + rightScore);
+							outside[right] = SloppyMath.logAdd(outside[right], ruleScore + leftScore);
+						}
+					}
+				}
+			}
+		}
+
+		boolean[] allowed = chart.allowed;
+		for (int i = 0; i < size; i++) {
+			double posterior = Math.max(inside[i] + outside[i], insidePre[i] + outsidePre[i]) - logSentenceProbability;
+			allowed[i] = posterior >= logPruningThreshold;
+		}
+		return true;
+	}
+
+	/* Adds one layer of closed unary rules to a cell of inside scores. */
+	private void insideUnaries(double[] insidePre, double[] inside, int base) {
+		CompiledGrammar coarse = coarseGrammar;
+		System.arraycopy(insidePre, base, inside, base, coarse.numSymbols());
+		for (int r = 0; r < coarse.unaryParent.length; r++) {
+			double childScore = insidePre[base + coarse.unaryChild[r]];
+			if (childScore == Double.NEGATIVE_INFINITY) continue;
+			int parent = base + coarse.unaryParent[r];
+			inside[parent] = SloppyMath.logAdd(inside[parent], childScore - coarse.unaryScore[r]);
+		}
+	}
+
+	/* A fine chart carrying the coarse pass's allowed (span, symbol)
+	 * mask and the coarse inside and outside scores it is computed
+	 * from, all laid out like a chart over the coarse symbols. */
+	static class PrunedChart extends Chart {
+		int numCoarseSymbols;
+		boolean[] allowed = new boolean[0];
+		double[] insidePre = new double[0];
+		double[] inside = new double[0];
+		double[] outsidePre = new double[0];
+		double[] outside = new double[0];
+
+		int coarseOffset(int begin, int end) {
+			return cellIndex(length, begin, end) * numCoarseSymbols;
+		}
+
+		/* Resets the fine chart and makes room for the coarse pass; the
+		 * coarse arrays are cleared by computeAllowedSymbols(). */
+		void reset(int length, int numSymbols, int numCoarseSymbols) {
+			reset(length, numSymbols);
+			this.numCoarseSymbols = numCoarseSymbols;
+			int coarseSize = length * (length + 1) / 2 * numCoarseSymbols;
+			if (allowed.length < coarseSize) {
+				allowed = new boolean[coarseSize];
+				insidePre = new double[coarseSize];
+				inside = new double[coarseSize];
+				outsidePre = new double[coarseSize];
+				outside = new double[coarseSize];
+			}
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.BinaryRule;
+import cs224n.assignments.PCFGParserTester.Grammar;
+import cs224n.assignments.PCFGParserTester.Lexicon;
+import cs224n.assignments.PCFGParserTester.UnaryRule;
+import cs224n.util.CollectionUtils;
+import cs224n.util.SymbolTable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A Grammar and Lexicon compiled for fast parsing.  Every symbol is
+ * numbered through an Index, and rules are stored as parallel arrays of
+ * symbol ids and costs (negative log probabilities).  Binary rules are
+ * sorted by left child and unary rules by child, with
+ * binaryByLeftStart[s] .. binaryByLeftStart[s+1] (and likewise
+ * unaryByChildStart) delimiting the rules for symbol s.  The ids of
+ * the binary rules with right child s are likewise found in
+ * binaryRulesByRight between binaryByRightStart[s] and
+ * binaryByRightStart[s+1], and those of the binary and unary rules
+ * with parent s in binaryRulesByParent and unaryRulesByParent.  For
+ * the CKY inner loop, binary rules are also grouped by their (left,
+ * right) child pair: the pairs with left child s are
+ * pairByLeftStart[s] .. pairByLeftStart[s+1], pair p has right child
+ * pairRight[p], and its rules are pairRuleStart[p] .. pairRuleStart[p+1]
+ * in pairRule (rule ids), pairParent and pairScore.  The unary rules
+ * are the grammar's unary closure; unaryChains[r] lists the symbols
+ * strictly between parent and child on the chain behind r, from the
+ * top down.
+ */
+public class CompiledGrammar {
+
+	SymbolTable symbols = new SymbolTable();
+	Lexicon lexicon;
+	int rootSymbol;
+
+	int[] tags;
+	String[] tagNames;
+
+	int[] binaryParent;
+	int[] binaryLeft;
+	int[] binaryRight;
+	double[] binaryScore;
+	int[] binaryByLeftStart;
+	int[] binaryByRightStart;
+	int[] binaryRulesByRight;
+	int[] binaryByParentStart;
+	int[] binaryRulesByParent;
+	int[] pairByLeftStart;
+	int[] pairRight;
+	int[] pairRuleStart;
+	int[] pairRule;
+	int[] pairParent;
+	double[] pairScore;
+
+	int[] unaryParent;
+	int[] unaryChild;
+	double[] unaryScore;
+	int[][] unaryChains;
+	int[] unaryByChildStart;
+	int[] unaryByParentStart;
+	int[] unaryRulesByParent;
+
+	public int numSymbols() {
+		return symbols.size();
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	public CompiledGrammar(Grammar grammar, Lexicon lexicon) {
+		this.lexicon = lexicon;
+		symbols.add("ROOT");
+		rootSymbol = symbols.indexOf("ROOT");
+		List<String> tagList = lexicon.getTagIndex();
+		symbols.addAll(tagList);
+		List<BinaryRule> binaryRules = new ArrayList<BinaryRule>();
+		for (String leftChild : CollectionUtils.sort(grammar.binaryRulesByLeftChild.keySet())) {
+			for (BinaryRule rule : grammar.getBinaryRulesByLeftChild(leftChild)) {
+				symbols.add(rule.getParent());
+				symbols.add(rule.getLeftChild());
+				symbols.add(rule.getRightChild());
+				binaryRules.add(rule);
+			}
+		}
+		List<UnaryRule> unaryRules = new ArrayList<UnaryRule>();
+		for (String child : CollectionUtils.sort(grammar.closedUnaryRulesByChild.keySet())) {
+			for (UnaryRule rule : grammar.getClosedUnaryRulesByChild(child)) {
+				symbols.addAll(grammar.getClosedUnaryPath(rule));
+				unaryRules.add(rule);
+			}
+		}
+
+		tags = new int[tagList.size()];
+		tagNames = new String[tagList.size()];
+		for (int t = 0; t < tags.length; t++) {
+			tagNames[t] = tagList.get(t);
+			tags[t] = symbols.indexOf(tagNames[t]);
+		}
+		compileBinaryRules(binaryRules);
+		compileUnaryRules(grammar, unaryRules);
+		buildRuleIndexes();
+	}
+
+	/* Builds the rule indexes other than binaryByLeftStart and
+	 * unaryByChildStart, which come with the rule order. */
+	private void buildRuleIndexes() {
+		binaryByRightStart = groupStarts(binaryRight);
+		binaryRulesByRight = groupRules(binaryRight, binaryByRightStart);
+		binaryByParentStart = groupStarts(binaryParent);
+		binaryRulesByParent = groupRules(binaryParent, binaryByParentStart);
+		unaryByParentStart = groupStarts(unaryParent);
+		unaryRulesByParent = groupRules(unaryParent, unaryByParentStart);
+		compileRulePairs();
+	}
+
+	/* Writes the grammar and its lexicon in the format of ModelFile. */
+	void write(DataOutputStream out) throws IOException {
+		ModelFile.writeStrings(out, symbols);
+		out.writeInt(rootSymbol);
+		lexicon.write(out);
+		ModelFile.writeInts(out, tags);
+		ModelFile.writeInts(out, binaryParent);
+		ModelFile.writeInts(out, binaryLeft);
+		ModelFile.writeInts(out, binaryRight);
+		ModelFile.writeDoubles(out, binaryScore);
+		ModelFile.writeInts(out, unaryParent);
+		ModelFile.writeInts(out, unaryChild);
+		ModelFile.writeDoubles(out, unaryScore);
+		for (int[] chain : unaryChains) {
+			ModelFile.writeInts(out, chain);
+		}
+	}
+
+	/* Reads a grammar written by write(). */
+	static CompiledGrammar read(ByteBuffer in) throws IOException {
+		CompiledGrammar grammar = new CompiledGrammar();
+		grammar.symbols.addAll(ModelFile.readStrings(in));
+		grammar.rootSymbol = in.getInt();
+		grammar.lexicon = Lexicon.read(in);
+		grammar.tags = ModelFile.readInts(in);
+		grammar.tagNames = grammar.lexicon.getTagIndex().toArray(new String[0]);
+		grammar.binaryParent = ModelFile.readInts(in);
+		grammar.binaryLeft = ModelFile.readInts(in);
+		grammar.binaryRight = ModelFile.readInts(in);
+		grammar.binaryScore = ModelFile.readDoubles(in);
+		grammar.unaryParent = ModelFile.readInts(in);
+		grammar.unaryChild = ModelFile.readInts(in);
+		grammar.unaryScore = ModelFile.readDoubles(in);
+		grammar.unaryChains = new int[grammar.unaryParent.length][];
+		for (int r = 0; r < grammar.unaryChains.length; r++) {
+			grammar.unaryChains[r] = ModelFile.readInts(in);
+		}
+		grammar.binaryByLeftStart = grammar.groupStarts(grammar.binaryLeft);
+		grammar.unaryByChildStart = grammar.groupStarts(grammar.unaryChild);
+		grammar.buildRuleIndexes();
+		return grammar;
+	}
+
+	private CompiledGrammar() {
+	}
+
+	private void compileBinaryRules(List<BinaryRule> rules) {
+		int numRules = rules.size();
+		binaryParent = new int[numRules];
+		binaryLeft = new int[numRules];
+		binaryRight = new int[numRules];
+		binaryScore = new double[numRules];
+		binaryByLeftStart = new int[numSymbols() + 1];
+		for (BinaryRule rule : rules) {
+			binaryByLeftStart[symbols.indexOf(rule.getLeftChild()) + 1]++;
+		}
+		for (int s = 0; s < numSymbols(); s++) {
+			binaryByLeftStart[s + 1] += binaryByLeftStart[s];
+		}
+		int[] next = binaryByLeftStart.clone();
+		for (BinaryRule rule : rules) {
+			int left = symbols.indexOf(rule.getLeftChild());
+			int r = next[left]++;
+			binaryParent[r] = symbols.indexOf(rule.getParent());
+			binaryLeft[r] = left;
+			binaryRight[r] = symbols.indexOf(rule.getRightChild());
+			binaryScore[r] = rule.getNegLogScore();
+		}
+	}
+
+	/* Returns the start of each symbol's group when rules are grouped
+	 * by the given symbol, with a final entry for the end. */
+	private int[] groupStarts(int[] ruleSymbols) {
+		int[] starts = new int[numSymbols() + 1];
+		for (int symbol : ruleSymbols) {
+			starts[symbol + 1]++;
+		}
+		for (int s = 0; s < numSymbols(); s++) {
+			starts[s + 1] += starts[s];
+		}
+		return starts;
+	}
+
+	/* Lists the rule ids grouped by the given symbol, in increasing
+	 * order within each group. */
+	private static int[] groupRules(int[] ruleSymbols, int[] starts) {
+		int[] next = starts.clone();
+		int[] rules = new int[ruleSymbols.length];
+		for (int r = 0; r < ruleSymbols.length; r++) {
+			rules[next[ruleSymbols[r]]++] = r;
+		}
+		return rules;
+	}
+
+	private void compileRulePairs() {
+		int numRules = binaryParent.length;
+		pairByLeftStart = new int[numSymbols() + 1];
+		pairRule = new int[numRules];
+		pairParent = new int[numRules];
+		pairScore = new double[numRules];
+		List<Integer> rights = new ArrayList<Integer>();
+		List<Integer> ruleStarts = new ArrayList<Integer>();
+		int i = 0;
+		for (int left = 0; left < numSymbols(); left++) {
+			pairByLeftStart[left] = rights.size();
+			Integer[] block = new Integer[binaryByLeftStart[left + 1] - binaryByLeftStart[left]];
+			for (int r = binaryByLeftStart[left]; r < binaryByLeftStart[left + 1]; r++) {
+				block[r - binaryByLeftStart[left]] = r;
+			}
+			Arrays.sort(block, new Comparator<Integer>() {
+				public int compare(Integer r1, Integer r2) {
+					return binaryRight[r1] - binaryRight[r2];
+				}
+			});
+			for (int r : block) {
+				if (i == binaryByLeftStart[left] || binaryRight[r] != rights.get(rights.size() - 1)) {
+					rights.add(binaryRight[r]);
+					ruleStarts.add(i);
+				}
+				pairRule[i] = r;
+				pairParent[i] = binaryParent[r];
+				pairScore[i] = binaryScore[r];
+				i++;
+			}
+		}
+		pairByLeftStart[numSymbols()] = rights.size();
+		pairRight = new int[rights.size()];
+		pairRuleStart = new int[rights.size() + 1];
+		for (int p = 0; p < rights.size(); p++) {
+			pairRight[p] = rights.get(p);
+			pairRuleStart[p] = ruleStarts.get(p);
+		}
+		pairRuleStart[rights.size()] = numRules;
+	}
+
+	private void compileUnaryRules(Grammar grammar, List<UnaryRule> rules) {
+		int numRules = rules.size();
+		unaryParent = new int[numRules];
+		unaryChild = new int[numRules];
+		unaryScore = new double[numRules];
+		unaryChains = new int[numRules][];
+		unaryByChildStart = new int[numSymbols() + 1];
+		for (UnaryRule rule : rules) {
+			unaryByChildStart[symbols.indexOf(rule.getChild()) + 1]++;
+		}
+		for (int s = 0; s < numSymbols(); s++) {
+			unaryByChildStart[s + 1] += unaryByChildStart[s];
+		}
+		int[] next = unaryByChildStart.clone();
+		for (UnaryRule rule : rules) {
+			int child = symbols.indexOf(rule.getChild());
+			int r = next[child]++;
+			unaryParent[r] = symbols.indexOf(rule.getParent());
+			unaryChild[r] = child;
+			unaryScore[r] = rule.getNegLogScore();
+			List<String> path = grammar.getClosedUnaryPath(rule);
+			unaryChains[r] = new int[path.size() - 2];
+			for (int i = 1; i < path.size() - 1; i++) {
+				unaryChains[r][i - 1] = symbols.indexOf(path.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package cs224n.assignments;
+
+import cs224n.io.PennTreebankReader;
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+
+import java.util.*;
+
+/**
+ * Checks CKYParser.getKBestParses() against the chart it enumerates.
+ * For every test sentence the first of the K parses must be the tree
+ * getBestParse() returns, no two of them may be the same tree, the
+ * first derivation must cost the chart's score for ROOT over the
+ * sentence, and no derivation may cost less than the one before it.
+ *
+ * With no arguments it trains on ChartAllocationCheck's built-in
+ * treebank and parses its sentence and the yields of its trees.  Given
+ * a data path and a data set, as PCFGParserTester's -path and -data, it
+ * trains and tests on the files the tester uses for that set; treebank
+ * test sentences are kept to at most 20 words.  It prints a line per
+ * failure and a summary, and exits with status 1 if anything failed.
+ */
+public class KBestCheck {
+
+	static final int K = 20;
+
+	public static void main(String[] args) {
+		List<Tree<String>> trainTrees;
+		List<List<String>> testSentences = new ArrayList<List<String>>();
+		if (args.length == 0) {
+			trainTrees = ChartAllocationCheck.readTrees();
+			testSentences.add(Arrays.asList(ChartAllocationCheck.SENTENCE.split(" ")));
+			for (Tree<String> tree : ChartAllocationCheck.readTrees()) {
+				testSentences.add(tree.getYield());
+			}
+		} else {
+			String basePath = args[0] + (args[0].endsWith("/") ? "" : "/") + args[1];
+			boolean miniTest = args[1].equals("miniTest");
+			Trees.TreeTransformer<String> normalizer = new Trees.StandardTreeNormalizer();
+			trainTrees = new ArrayList<Tree<String>>();
+			for (Tree<String> tree : PennTreebankReader.readTrees(basePath, miniTest ? 1 : 200, miniTest ? 3 : 2199)) {
+				trainTrees.add(normalizer.transformTree(tree));
+			}
+			for (Tree<String> tree : PennTreebankReader.readTrees(basePath, miniTest ? 4 : 2300, miniTest ? 4 : 2319)) {
+				List<String> sentence = tree.getYield();
+				if (miniTest || sentence.size() <= 20)
+					testSentences.add(sentence);
+			}
+		}
+
+		CKYParser parser = new CKYParser();
+		parser.train(trainTrees);
+		int failures = 0;
+		for (List<String> sentence : testSentences) {
+			failures += check(parser, sentence);
+		}
+		System.out.println(testSentences.size() + " sentences, " + failures + " failures");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/* Checks one sentence, printing each failure, and returns how many
+	 * there were. */
+	static int check(CKYParser parser, List<String> sentence) {
+		int failures = 0;
+		String best = parser.getBestParse(sentence).toString();
+		List<Tree<String>> parses = parser.getKBestParses(sentence, K);
+		if (!parses.get(0).toString().equals(best)) {
+			System.out.println("FAILED  first parse is not the best parse: " + sentence);
+			failures++;
+		}
+		Set<String> distinct = new HashSet<String>();
+		for (Tree<String> parse : parses) {
+			distinct.add(parse.toString());
+		}
+		if (distinct.size() != parses.size() || parses.size() > K) {
+			System.out.println("FAILED  " + parses.size() + " parses, " + distinct.size() + " distinct: " + sentence);
+			failures++;
+		}
+
+		Chart chart = new Chart();
+		chart.reset(sentence.size(), parser.grammar.numSymbols());
+		parser.fillChart(sentence, chart);
+		double rootScore = chart.scores[chart.offset(0, sentence.size()) + parser.grammar.rootSymbol];
+		if (rootScore == Double.POSITIVE_INFINITY)
+			return failures;
+		KBestExtractor extractor = new KBestExtractor(parser.grammar, sentence, chart);
+		if (extractor.getCost(0) != rootScore) {
+			System.out.println("FAILED  first derivation costs " + extractor.getCost(0)
+					+ ", chart " + rootScore + ": " + sentence);
+			failures++;
+		}
+		for (int i = 1; i < K && extractor.getCost(i) != Double.POSITIVE_INFINITY; i++) {
+			if (extractor.getCost(i) < extractor.getCost(i - 1)) {
+				System.out.println("FAILED  derivation " + i + " costs less than the one before: " + sentence);
+				failures++;
+			}
+		}
+		return failures;
+	}
+}
@@ -0,0 +1,298 @@
+package cs224n.assignments;
+
+import cs224n.ling.Tree;
+import cs224n.util.PriorityQueue;
+
+import java.util.*;
+
+/**
+ * Lazy k-best enumeration over a filled chart: algorithm 3 of Huang
+ * and Chiang (2005), "Better k-best parsing".  The chart is read as
+ * a hypergraph with two nodes per (begin, end, symbol): a PRE node,
+ * built by a binary rule or the lexicon, and a POST node, which is
+ * either its own PRE node or a closed unary rule over the PRE node
+ * of another symbol in the cell.  This is exactly how the chart
+ * applies unaries, so no derivation is listed twice.  Each node
+ * lists its derivations best first as they are asked for.  Its
+ * candidates start as the best derivation along every incoming
+ * edge, and each one listed adds its neighbours, found by asking a
+ * single child for its next derivation.  The best derivation of a
+ * POST node costs its chart score, so the first derivation only
+ * visits the nodes it uses, and every further one costs roughly
+ * the tree's depth in heap operations.
+ *
+ * Derivation costs are summed in the order the chart sums them, and
+ * the first derivation of each node is the one its backpointer
+ * records whenever that costs exactly the node's chart score.  So
+ * among derivations of equal cost the first is the one the chart
+ * chose, and the first tree is the one CKYParser.getBestParse builds.
+ * PRE nodes are seeded from the chart's preBackpointers, the entries
+ * from before the cell's unaries were applied.
+ */
+class KBestExtractor {
+	static final int PRE = 0;
+	static final int POST = 1;
+
+	// incoming edge kinds
+	static final int LEXICAL = 0;
+	static final int BINARY = 1;
+	static final int UNARY = 2;
+	static final int IDENTITY = 3;
+
+	CompiledGrammar grammar;
+	List<String> sentence;
+	Chart chart;
+	Map<Integer, Node> nodes = new HashMap<Integer, Node>();
+	int[] tagOf;
+
+	class Node {
+		int begin;
+		int end;
+		int symbol;
+		int layer;
+		List<Derivation> derivations = new ArrayList<Derivation>();
+		// derivations whose successors have been queued
+		int expanded = 0;
+		PriorityQueue<Derivation> candidates;
+		Set<Derivation> queued;
+
+		Node(int begin, int end, int symbol, int layer) {
+			this.begin = begin;
+			this.end = end;
+			this.symbol = symbol;
+			this.layer = layer;
+		}
+	}
+
+	/* One derivation of a node: an incoming edge and, for each of its
+	 * tail nodes, the rank of the tail's derivation used. */
+	static class Derivation {
+		int kind;
+		int rule;
+		int split;
+		Node[] tails;
+		int[] ranks;
+		double cost;
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Derivation)) return false;
+			Derivation d = (Derivation) o;
+			return kind == d.kind && rule == d.rule && split == d.split && Arrays.equals(ranks, d.ranks);
+		}
+
+		public int hashCode() {
+			return ((kind * 31 + rule) * 31 + split) * 31 + Arrays.hashCode(ranks);
+		}
+
+		Derivation(int kind, int rule, int split, Node[] tails, int[] ranks) {
+			this.kind = kind;
+			this.rule = rule;
+			this.split = split;
+			this.tails = tails;
+			this.ranks = ranks;
+		}
+	}
+
+	/* Returns the annotated tree of the rank-th best derivation of
+	 * ROOT over the sentence, or null if there are not that many. */
+	Tree<String> getTree(int rank) {
+		Node root = getNode(0, sentence.size(), grammar.rootSymbol, POST);
+		Derivation derivation = getDerivation(root, rank);
+		return (derivation == null ? null : buildTree(root, derivation));
+	}
+
+	/* Returns the cost of the rank-th best derivation of ROOT over the
+	 * sentence, or POSITIVE_INFINITY if there are not that many. */
+	double getCost(int rank) {
+		Node root = getNode(0, sentence.size(), grammar.rootSymbol, POST);
+		Derivation derivation = getDerivation(root, rank);
+		return (derivation == null ? Double.POSITIVE_INFINITY : derivation.cost);
+	}
+
+	private Tree<String> buildTree(Node node, Derivation derivation) {
+		String label = grammar.symbols.get(node.symbol);
+		switch (derivation.kind) {
+		case LEXICAL:
+			return new Tree<String>(label, Collections.singletonList(new Tree<String>(sentence.get(node.begin))));
+		case IDENTITY:
+			return buildTree(derivation.tails[0], getDerivation(derivation.tails[0], derivation.ranks[0]));
+		case UNARY:
+			Tree<String> subTree = buildTree(derivation.tails[0], getDerivation(derivation.tails[0], derivation.ranks[0]));
+			int[] chain = grammar.unaryChains[derivation.rule];
+			for (int i = chain.length - 1; i >= 0; i--) {
+				subTree = new Tree<String>(grammar.symbols.get(chain[i]), Collections.singletonList(subTree));
+			}
+			return new Tree<String>(label, Collections.singletonList(subTree));
+		default:
+			List<Tree<String>> children = new ArrayList<Tree<String>>();
+			for (int i = 0; i < 2; i++) {
+				children.add(buildTree(derivation.tails[i], getDerivation(derivation.tails[i], derivation.ranks[i])));
+			}
+			return new Tree<String>(label, children);
+		}
+	}
+
+	private Node getNode(int begin, int end, int symbol, int layer) {
+		Integer id = (chart.offset(begin, end) + symbol) * 2 + layer;
+		Node node = nodes.get(id);
+		if (node == null) {
+			node = new Node(begin, end, symbol, layer);
+			nodes.put(id, node);
+		}
+		return node;
+	}
+
+	/* Returns the rank-th best derivation of a node, computing it and
+	 * every better one if needed, or null if there is none. */
+	Derivation getDerivation(Node node, int rank) {
+		if (node.candidates == null)
+			initializeCandidates(node);
+		while (node.derivations.size() <= rank) {
+			if (node.expanded < node.derivations.size()) {
+				queueSuccessors(node, node.derivations.get(node.derivations.size() - 1));
+				node.expanded = node.derivations.size();
+			}
+			if (!node.candidates.hasNext())
+				return null;
+			node.derivations.add(node.candidates.next());
+		}
+		return node.derivations.get(rank);
+	}
+
+	/* The cost of the rank-th derivation of a tail node, or
+	 * POSITIVE_INFINITY if it has none.  The best derivation of a
+	 * POST node is read from the chart without building it. */
+	private double getCost(Node node, int rank) {
+		if (rank == 0 && node.layer == POST)
+			return chart.scores[chart.offset(node.begin, node.end) + node.symbol];
+		Derivation derivation = getDerivation(node, rank);
+		return (derivation == null ? Double.POSITIVE_INFINITY : derivation.cost);
+	}
+
+	/* The tails' costs, then the edge's, added in the chart's order. */
+	private double getCost(Derivation derivation, double edgeCost) {
+		double cost = 0.0;
+		for (int i = 0; i < derivation.tails.length; i++) {
+			cost += getCost(derivation.tails[i], derivation.ranks[i]);
+		}
+		return cost + edgeCost;
+	}
+
+	private void queue(Node node, Derivation derivation, double edgeCost) {
+		double cost = getCost(derivation, edgeCost);
+		if (cost == Double.POSITIVE_INFINITY || !node.queued.add(derivation)) return;
+		derivation.cost = cost;
+		node.candidates.add(derivation, -cost);
+	}
+
+	private void queueSuccessors(Node node, Derivation derivation) {
+		for (int i = 0; i < derivation.tails.length; i++) {
+			int[] ranks = derivation.ranks.clone();
+			ranks[i]++;
+			Derivation successor = new Derivation(derivation.kind, derivation.rule, derivation.split, derivation.tails, ranks);
+			queue(node, successor, edgeCost(successor));
+		}
+	}
+
+	private double edgeCost(Derivation derivation) {
+		switch (derivation.kind) {
+		case BINARY: return grammar.binaryScore[derivation.rule];
+		case UNARY: return grammar.unaryScore[derivation.rule];
+		default: return 0.0;
+		}
+	}
+
+	/* Makes the derivation that the chart's backpointer records the
+	 * node's first, if it costs the node's chart score, which no other
+	 * derivation can beat.  A PRE node reads its preBackpointer, and
+	 * when a unary rule then improved on it, the chart no longer has
+	 * its score: its preBackpointer is the best of its binary or
+	 * lexical derivations, and is taken as it is. */
+	private void seedFromChart(Node node) {
+		int entry = chart.offset(node.begin, node.end) + node.symbol;
+		double score = chart.scores[entry];
+		if (score == Double.POSITIVE_INFINITY)
+			return;
+		boolean unaryAbove = Chart.isUnary(chart.backpointers[entry]);
+		long backpointer = (node.layer == PRE ? chart.preBackpointers[entry] : chart.backpointers[entry]);
+		if (backpointer == Chart.NONE)
+			return;
+		Derivation derivation;
+		double edgeCost = 0.0;
+		if (node.layer == POST) {
+			if (Chart.isUnary(backpointer)) {
+				int r = Chart.rule(backpointer);
+				Node child = getNode(node.begin, node.end, grammar.unaryChild[r], PRE);
+				derivation = new Derivation(UNARY, r, -1, new Node[] { child }, new int[1]);
+				edgeCost = grammar.unaryScore[r];
+			} else {
+				Node pre = getNode(node.begin, node.end, node.symbol, PRE);
+				derivation = new Derivation(IDENTITY, -1, -1, new Node[] { pre }, new int[1]);
+			}
+		} else if (backpointer == Chart.LEXICAL) {
+			if (node.end - node.begin != 1 || tagOf[node.symbol] < 0)
+				return;
+			derivation = new Derivation(LEXICAL, -1, -1, new Node[0], new int[0]);
+			edgeCost = getTagScore(node);
+		} else {
+			int r = Chart.rule(backpointer);
+			int split = Chart.split(backpointer);
+			Node left = getNode(node.begin, split, grammar.binaryLeft[r], POST);
+			Node right = getNode(split, node.end, grammar.binaryRight[r], POST);
+			derivation = new Derivation(BINARY, r, split, new Node[] { left, right }, new int[2]);
+			edgeCost = grammar.binaryScore[r];
+		}
+		double cost = getCost(derivation, edgeCost);
+		if (cost != score && !(node.layer == PRE && unaryAbove))
+			return;
+		derivation.cost = cost;
+		node.queued.add(derivation);
+		node.derivations.add(derivation);
+	}
+
+	private double getTagScore(Node node) {
+		int wordId = grammar.lexicon.getWordId(sentence.get(node.begin));
+		return grammar.lexicon.getTagScores(wordId)[tagOf[node.symbol]];
+	}
+
+	private void initializeCandidates(Node node) {
+		node.candidates = new PriorityQueue<Derivation>();
+		node.queued = new HashSet<Derivation>();
+		seedFromChart(node);
+		if (node.layer == POST) {
+			Node pre = getNode(node.begin, node.end, node.symbol, PRE);
+			queue(node, new Derivation(IDENTITY, -1, -1, new Node[] { pre }, new int[1]), 0.0);
+			for (int i = grammar.unaryByParentStart[node.symbol]; i < grammar.unaryByParentStart[node.symbol + 1]; i++) {
+				int r = grammar.unaryRulesByParent[i];
+				Node child = getNode(node.begin, node.end, grammar.unaryChild[r], PRE);
+				queue(node, new Derivation(UNARY, r, -1, new Node[] { child }, new int[1]), grammar.unaryScore[r]);
+			}
+		} else if (node.end - node.begin == 1) {
+			if (tagOf[node.symbol] >= 0)
+				queue(node, new Derivation(LEXICAL, -1, -1, new Node[0], new int[0]), getTagScore(node));
+		} else {
+			for (int i = grammar.binaryByParentStart[node.symbol]; i < grammar.binaryByParentStart[node.symbol + 1]; i++) {
+				int r = grammar.binaryRulesByParent[i];
+				for (int split = node.begin + 1; split < node.end; split++) {
+					if (chart.scores[chart.offset(node.begin, split) + grammar.binaryLeft[r]] == Double.POSITIVE_INFINITY
+							|| chart.scores[chart.offset(split, node.end) + grammar.binaryRight[r]] == Double.POSITIVE_INFINITY)
+						continue;
+					Node left = getNode(node.begin, split, grammar.binaryLeft[r], POST);
+					Node right = getNode(split, node.end, grammar.binaryRight[r], POST);
+					queue(node, new Derivation(BINARY, r, split, new Node[] { left, right }, new int[2]), grammar.binaryScore[r]);
+				}
+			}
+		}
+	}
+
+	KBestExtractor(CompiledGrammar grammar, List<String> sentence, Chart chart) {
+		this.grammar = grammar;
+		this.sentence = sentence;
+		this.chart = chart;
+		tagOf = new int[grammar.numSymbols()];
+		Arrays.fill(tagOf, -1);
+		for (int t = 0; t < grammar.tags.length; t++) {
+			tagOf[grammar.tags[t]] = t;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.TreeAnnotations;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary file holding trained CompiledGrammars, so that a parser can
+ * start without reading the treebank.  The file holds a magic number,
+ * a format version, TreeAnnotations.ANNOTATION_SETTINGS and a count of
+ * grammars.  Each grammar then stores its symbols, its lexicon's score
+ * tables and the counts behind them, tag ids, and rule arrays in
+ * compiled order.  The rule indexes are rebuilt on reading.  Everything is big-endian, and strings are UTF-8
+ * behind their byte length.
+ *
+ * The file is read through a read-only memory map, but every table is
+ * copied out of it into ordinary heap arrays, since the parsers index
+ * int[] and double[] rather than buffers.  So each process holds its
+ * own copy of the model: reading costs one pass over the file rather
+ * than parsing the treebank, and only the file's pages, not the
+ * tables, are shared between processes through the page cache.
+ */
+public class ModelFile {
+	static final int MAGIC = 0x50434647; // "PCFG"
+	static final int VERSION = 2;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void write(File file, List<CompiledGrammar> grammars) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, TreeAnnotations.ANNOTATION_SETTINGS);
+			out.writeInt(grammars.size());
+			for (CompiledGrammar grammar : grammars) {
+				grammar.write(out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static List<CompiledGrammar> read(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.remaining() < 8 || in.getInt() != MAGIC)
+				throw new IOException(file + " is not a model file");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException(file + " has model format version " + version + ", expected " + VERSION);
+			String settings = readString(in);
+			if (!settings.equals(TreeAnnotations.ANNOTATION_SETTINGS))
+				throw new IOException(file + " was trained with annotation \"" + settings + "\"");
+			int numGrammars = in.getInt();
+			List<CompiledGrammar> grammars = new ArrayList<CompiledGrammar>();
+			for (int i = 0; i < numGrammars; i++) {
+				grammars.add(CompiledGrammar.read(in));
+			}
+			return grammars;
+		} catch (RuntimeException e) {
+			// BufferUnderflowException and friends: a truncated file
+			throw new IOException(file + " is corrupt", e);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			writeString(out, string);
+		}
+	}
+
+	static List<String> readStrings(ByteBuffer in) {
+		int size = in.getInt();
+		List<String> strings = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			strings.add(readString(in));
+		}
+		return strings;
+	}
+
+	static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		out.writeInt(values.length);
+		for (double value : values) {
+			out.writeDouble(value);
+		}
+	}
+
+	static double[] readDoubles(ByteBuffer in) {
+		return readDoubles(in, in.getInt());
+	}
+
+	/* Reads a given number of doubles stored without a length. */
+	static double[] readDoubles(ByteBuffer in, int length) {
+		double[] values = new double[length];
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + 8 * length);
+		return values;
+	}
+}
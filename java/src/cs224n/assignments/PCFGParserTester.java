@@ -1,14 +1,27 @@
 package cs224n.assignments;
 
 import cs224n.io.PennTreebankReader;
+import cs224n.io.TreebankCache;
+import cs224n.ling.CompactTreebank;
 import cs224n.ling.Tree;
 import cs224n.ling.Trees;
 import cs224n.parser.EnglishPennTreebankParseEvaluator;
 import cs224n.util.*;
+import cs224n.util.PriorityQueue;
 
 
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +43,23 @@ public class PCFGParserTester {
 		public Tree<String> getBestParse(List<String> sentence);
 	}
 
+	/**
+	 * Parsers which can also list their k best parses, best first.  Fewer
+	 * than k parses are returned when the sentence has fewer derivations.
+	 */
+	public static interface KBestParser extends Parser {
+		public List<Tree<String>> getKBestParses(List<String> sentence, int k);
+	}
+
+	/**
+	 * Parsers which can also train from a single pass over a stream of
+	 * normalized trees, without keeping them.  Training memory then grows
+	 * with the size of the grammar and vocabulary, not the corpus.
+	 */
+	public static interface StreamingParser extends Parser {
+		public void train(Iterator<Tree<String>> trainTrees);
+	}
+
 
 	// PCFGParser =================================================================
 
@@ -43,11 +73,7 @@ public class PCFGParserTester {
 
 		public void train(List<Tree<String>> trainTrees) {
 
-			List<Tree<String> > annotatedTrees = new ArrayList<Tree<String>> ();
-			for (Tree<String> tree: trainTrees) {
-				Tree<String> newTree = TreeAnnotations.annotateTree(tree);
-				annotatedTrees.add(newTree);
-			}
+			List<Tree<String> > annotatedTrees = ParallelTraining.annotateTrees(trainTrees);
 			lexicon = new Lexicon(annotatedTrees);
 			grammar = new Grammar(annotatedTrees);
 		}
@@ -67,54 +93,38 @@ public class PCFGParserTester {
 
 		public Tree<String> getBestParse(List<String> sentence) {
 			ArrayList<ArrayList<Counter<String> > > score = new ArrayList<ArrayList<Counter<String> > >();
+			ArrayList<ArrayList<Map<String, Backpointer> > > back = new ArrayList<ArrayList<Map<String, Backpointer> > >();
 
-			long origStart = System.currentTimeMillis();
-			long start = origStart;
 			for (int i = 0; i < sentence.size(); i++) {
 				score.add(i, new ArrayList<Counter<String> >());
+				back.add(i, new ArrayList<Map<String, Backpointer> >());
 				for (int j = 0; j <= sentence.size(); j++) {
 					score.get(i).add(j, new Counter<String>());
+					back.get(i).add(j, new HashMap<String, Backpointer>());
 				}
 			}
 
-			System.out.println("Done initalizing arrays: " + ((System.currentTimeMillis()-start)/1000F));
-			start = System.currentTimeMillis();
 			// Initialize score.
 			for (int i = 0; i < sentence.size(); i++) {
 				Counter<String> squareScore = score.get(i).get(i+1);
+				Map<String, Backpointer> squareBack = back.get(i).get(i+1);
 				String curWord = sentence.get(i);
-				for (String tag : lexicon.getAllTags()) {
-					if(lexicon.scoreTagging(curWord, tag) != 0.0)
-						squareScore.setCount(tag, -Math.log(lexicon.scoreTagging(curWord, tag)));
+				int wordId = lexicon.getWordId(curWord);
+				double[] tagScores = lexicon.getTagScores(wordId);
+				for (int t : lexicon.getPossibleTags(wordId)) {
+					squareScore.setCount(lexicon.getTagIndex().get(t), tagScores[t]);
+					squareBack.put(lexicon.getTagIndex().get(t), Backpointer.LEXICAL);
 				}
 
 				// Handle unaries
-				boolean added = true;
-				while (added) {
-					added = false;
-					Set<String> temp = new HashSet<String>(squareScore.keySet());
-					for (String B: temp) {
-						for (UnaryRule rule: grammar.getUnaryRulesByChild(B)) {
-
-							String A = rule.getParent();
-
-							double probability = squareScore.getCount(B) + -Math.log(rule.getScore());
-							if (probability < squareScore.getCount(A) || squareScore.getCount(A) == 0.0) {
-								squareScore.setCount(A, probability);
-								added = true;
-							}
-						}
-					}
-				}
+				applyUnaryClosure(squareScore, squareBack);
 			}
 
-			System.out.println("Done inputting lex: " + ((System.currentTimeMillis()-start)/1000F));
-			start = System.currentTimeMillis();
-
 			for (int span = 2; span <= sentence.size(); span++) {
 				for (int begin = 0; begin <= sentence.size() - span; begin++) {
 					int end = begin + span;
 					Counter<String> squareScore = score.get(begin).get(end);
+					Map<String, Backpointer> squareBack = back.get(begin).get(end);
 					for (int split = begin + 1; split <= end - 1; split++) {
 						Counter<String> leftScore = score.get(begin).get(split);
 						Counter<String> rightScore = score.get(split).get(end);
@@ -129,107 +139,117 @@ public class PCFGParserTester {
 								if (rightScore.keySet().contains(C)) {
 									double scoreC = rightScore.getCount(C);
 
-									double probability = scoreB + scoreC + 
-											(-Math.log(rule.getScore()));
+									double probability = scoreB + scoreC + rule.getNegLogScore();
 									double oldScore = squareScore.getCount(A);
 									if (probability < oldScore  || oldScore == 0.0) {
 										squareScore.setCount(A, probability);
+										squareBack.put(A, new Backpointer(rule, split));
 									}
 								}
 							}
 						} 
 					}  
 					// Handle unaries
+					applyUnaryClosure(squareScore, squareBack);
 
-					boolean added = true;
-					while (added) {
-						added = false;
+				}
 
-						Set<String> temp = new HashSet<String>(squareScore.keySet());
-						for (String B: temp) {
-							for (UnaryRule rule: grammar.getUnaryRulesByChild(B)) {
-								String A = rule.getParent();
+			}
+			return buildTree(sentence, back);
+		}
 
-								double probability = squareScore.getCount(B) + -Math.log(rule.getScore());
-								double oldScore = squareScore.getCount(A);
-								if (probability < oldScore  || oldScore == 0.0) {
-									squareScore.setCount(A, probability);
-									added = true;
-								}
-							}  
-						}
-					}
 
+		/* One pass of the closed unary rules over a cell, reading the
+		 * scores the cell had before any unary was applied.  A unary
+		 * backpointer keeps the child's backpointer from before the pass,
+		 * so the tree built from it is the one that was scored. */
+		private void applyUnaryClosure(Counter<String> squareScore, Map<String, Backpointer> squareBack) {
+			List<String> children = new ArrayList<String>(squareScore.keySet());
+			double[] childScores = new double[children.size()];
+			Backpointer[] childBacks = new Backpointer[children.size()];
+			for (int i = 0; i < childScores.length; i++) {
+				childScores[i] = squareScore.getCount(children.get(i));
+				childBacks[i] = squareBack.get(children.get(i));
+			}
+			for (int i = 0; i < childScores.length; i++) {
+				for (UnaryRule rule: grammar.getClosedUnaryRulesByChild(children.get(i))) {
+					String A = rule.getParent();
+					double probability = childScores[i] + rule.getNegLogScore();
+					double oldScore = squareScore.getCount(A);
+					if (probability < oldScore || oldScore == 0.0) {
+						squareScore.setCount(A, probability);
+						squareBack.put(A, new Backpointer(rule, childBacks[i]));
+					}
 				}
-
 			}
-			System.out.println("Done building box: " + ((System.currentTimeMillis()-start)/1000F));
-			start = System.currentTimeMillis();
-			Tree<String> toReturn = buildTree(sentence, score);
-			System.out.println("Done building tree: " + ((System.currentTimeMillis()-start)/1000F));
-			System.out.println("Total time: " + ((System.currentTimeMillis()-origStart)/1000F));
-			return toReturn;
 		}
 
-
-		private Tree<String> buildTree(List<String> sentence, ArrayList<ArrayList<Counter<String> > > score) {
-			Tree<String> annotated = recursiveBuildTree(sentence, score, 0, sentence.size(), "ROOT");
+		private Tree<String> buildTree(List<String> sentence, ArrayList<ArrayList<Map<String, Backpointer> > > back) {
+			Tree<String> annotated = recursiveBuildTree(sentence, back, 0, sentence.size(), "ROOT",
+					back.get(0).get(sentence.size()).get("ROOT"));
 			Tree<String> unanno = TreeAnnotations.unAnnotateTree(annotated);
 			return unanno;
 		}
 
-		private Tree<String> recursiveBuildTree(List<String> sentence, ArrayList<ArrayList<Counter<String> > > score,
-				int begin, int end, String tag) {
+		/* Follows the backpointers down from tag over [begin, end), so the
+		 * work is linear in the size of the tree.  A missing backpointer
+		 * (no parse) is treated like a tag over the word at begin. */
+		private Tree<String> recursiveBuildTree(List<String> sentence, ArrayList<ArrayList<Map<String, Backpointer> > > back,
+				int begin, int end, String tag, Backpointer backpointer) {
 			Tree<String> curTree = new Tree<String>(tag);
 
-			double tagScore = score.get(begin).get(end).getCount(tag);
-			Counter<String> squareScore = score.get(begin).get(end);
-			for (int split = begin + 1; split <= end - 1; split++) {
-				for (String B : score.get(begin).get(split).keySet()) {
-					for (BinaryRule rule: grammar.getBinaryRulesByLeftChild(B)) {
-						String C = rule.getRightChild();
-						if (!rule.getParent().equals(tag) || !score.get(split).get(end).keySet().contains(C)) continue;
-						double ruleScore = rule.getScore();
-						if (ruleScore == 0.0) continue;
-
-						double probability = score.get(begin).get(split).getCount(B) +
-								score.get(split).get(end).getCount(C) +
-								-Math.log(ruleScore);
-						if (probability == tagScore) {
-
-							List<Tree<String> > children = new ArrayList<Tree<String> >();
-							children.add(recursiveBuildTree(sentence, score, begin, split, B));
-							children.add(recursiveBuildTree(sentence, score, split, end, C));
-							curTree.setChildren(children);
-
-							return curTree;
-						}
-
-					}
-				}
+			if (backpointer != null && backpointer.binaryRule != null) {
+				BinaryRule rule = backpointer.binaryRule;
+				int split = backpointer.split;
+				List<Tree<String> > children = new ArrayList<Tree<String> >();
+				children.add(recursiveBuildTree(sentence, back, begin, split, rule.getLeftChild(),
+						back.get(begin).get(split).get(rule.getLeftChild())));
+				children.add(recursiveBuildTree(sentence, back, split, end, rule.getRightChild(),
+						back.get(split).get(end).get(rule.getRightChild())));
+				curTree.setChildren(children);
+				return curTree;
 			}
 
-			for (String child: squareScore.keySet()) {
-				for (UnaryRule rule: grammar.getUnaryRulesByChild(child)) {
-					String parent = rule.getParent();					
-					if (parent.equals(tag)) {
-						double probability = squareScore.getCount(child) + -Math.log(rule.getScore());
-						if (probability == squareScore.getCount(parent)) {
-							List<Tree<String> > children = new ArrayList<Tree<String> >();
-							children.add(recursiveBuildTree(sentence, score, begin, end, child));
-							curTree.setChildren(children);
-
-							return curTree;
-						}
-					}
+			if (backpointer != null && backpointer.unaryRule != null) {
+				UnaryRule rule = backpointer.unaryRule;
+				// expand the closed rule back into its chain of unaries
+				List<String> path = grammar.getClosedUnaryPath(rule);
+				Tree<String> subTree = recursiveBuildTree(sentence, back, begin, end, rule.getChild(), backpointer.child);
+				for (int i = path.size() - 2; i > 0; i--) {
+					subTree = new Tree<String>(path.get(i), Collections.singletonList(subTree));
 				}
+				curTree.setChildren(Collections.singletonList(subTree));
+				return curTree;
 			}
+
 			List<Tree<String> > children = new ArrayList<Tree<String> > ();
 
 			children.add(new Tree<String>(sentence.get(begin)));
 			curTree.setChildren(children);
 			return curTree;
 		}
+
+		/* How the best score of a symbol over a span was reached: by a
+		 * binary rule at a split point, by a closed unary rule over its
+		 * child's derivation, or (LEXICAL) by the lexicon. */
+		private static class Backpointer {
+			static final Backpointer LEXICAL = new Backpointer((BinaryRule) null, -1);
+
+			BinaryRule binaryRule;
+			int split;
+			UnaryRule unaryRule;
+			Backpointer child;
+
+			Backpointer(BinaryRule binaryRule, int split) {
+				this.binaryRule = binaryRule;
+				this.split = split;
+			}
+
+			Backpointer(UnaryRule unaryRule, Backpointer child) {
+				this.unaryRule = unaryRule;
+				this.child = child;
+			}
+		}
 	}
 
 	// BaselineParser =============================================================
@@ -284,7 +304,10 @@ public class PCFGParserTester {
 
 		private Tree<String> merge(Tree<String> leftTree, Tree<String> rightTree) {
 			int span = leftTree.getYield().size() + rightTree.getYield().size();
-			String mostFrequentLabel = spanToCategories.getCounter(span).argMax();
+			// check first: getCounter() would insert a counter for an unseen span
+			String mostFrequentLabel = null;
+			if (spanToCategories.keySet().contains(span))
+				mostFrequentLabel = spanToCategories.getCounter(span).argMax();
 			List<Tree<String>> children = new ArrayList<Tree<String>>();
 			children.add(leftTree);
 			children.add(rightTree);
@@ -358,6 +381,10 @@ public class PCFGParserTester {
 	 */
 	public static class TreeAnnotations {
 
+		// Describes annotateTree(), so that model files trained with a
+		// different annotation are rejected.  Change it with the annotation.
+		public static final String ANNOTATION_SETTINGS = "parent annotation; lossless binarization";
+
 		public static Tree<String> markovUnannotateTree(Tree<String> annotatedTree) {
 			recMarkovUnannotateTree(annotatedTree);
 			return annotatedTree;
@@ -397,7 +424,7 @@ public class PCFGParserTester {
 			if(parent != null && !tree.isLeaf()) {
 				String curLabel = tree.getLabel();
 				String parentLabel = parent.getLabel();
-				tree.setLabel(curLabel + "^" + parentLabel);
+				tree.setLabel(SymbolTable.labels().intern(curLabel + "^" + parentLabel));
 			}
 			return tree;
 		}
@@ -417,7 +444,7 @@ public class PCFGParserTester {
 			}
 			// otherwise, it's a binary-or-more local tree, 
 			// so decompose it into a sequence of binary and unary trees.
-			String intermediateLabel = "@"+label+"->";
+			String intermediateLabel = SymbolTable.labels().intern("@"+label+"->");
 			Tree<String> intermediateTree =
 					binarizeTreeHelper(tree, 0, intermediateLabel);
 			return new Tree<String>(label, intermediateTree.getChildren());
@@ -432,12 +459,39 @@ public class PCFGParserTester {
 			if (numChildrenGenerated < tree.getChildren().size() - 1) {
 				Tree<String> rightTree = 
 						binarizeTreeHelper(tree, numChildrenGenerated + 1, 
-								intermediateLabel + "_" + leftTree.getLabel());
+								SymbolTable.labels().intern(intermediateLabel + "_" + leftTree.getLabel()));
 				children.add(rightTree);
 			}
 			return new Tree<String>(intermediateLabel, children);
 		}
 
+		/* Projects an annotated label back to its base category by
+		 * dropping the parent annotation and, for intermediate symbols,
+		 * the horizontal context: NP^S becomes NP and @VP^S->_VBD^VP
+		 * becomes @VP. */
+		public static String projectLabel(String label) {
+			String base = label;
+			int arrowIndex = base.indexOf("->");
+			if (base.startsWith("@") && arrowIndex > 0)
+				base = base.substring(0, arrowIndex);
+			int cutIndex = base.indexOf('^');
+			if (cutIndex > 0)
+				base = base.substring(0, cutIndex);
+			return SymbolTable.labels().intern(base);
+		}
+
+		/* Returns a copy of an annotated tree with every non-leaf label
+		 * passed through projectLabel(). */
+		public static Tree<String> projectTree(Tree<String> annotatedTree) {
+			if (annotatedTree.isLeaf())
+				return new Tree<String>(annotatedTree.getLabel());
+			List<Tree<String>> children = new ArrayList<Tree<String>>();
+			for (Tree<String> child : annotatedTree.getChildren()) {
+				children.add(projectTree(child));
+			}
+			return new Tree<String>(projectLabel(annotatedTree.getLabel()), children);
+		}
+
 		public static Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
 
 			// Remove intermediate nodes (labels beginning with "@"
@@ -463,7 +517,9 @@ public class PCFGParserTester {
 
 	/**
 	 * Simple default implementation of a lexicon, which scores word,
-	 * tag pairs with a smoothed estimate of P(tag|word)/P(tag).
+	 * tag pairs with a smoothed estimate of P(tag|word)/P(tag).  A lexicon
+	 * is not modified after construction, so one can be read by many
+	 * parsing threads at once.
 	 */
 	public static class Lexicon {
 
@@ -474,6 +530,20 @@ public class PCFGParserTester {
 		Counter<String> wordCounter = new Counter<String>();
 		Counter<String> typeTagCounter = new Counter<String>();
 
+		Counter<String> tagLogProbabilities = new Counter<String>();
+		Counter<String> unknownTagLogCounts = new Counter<String>();
+		Counter<String> wordLogCounts = new Counter<String>();
+		Counter<String> wordLogProbabilities = new Counter<String>();
+		CounterMap<String,String> wordToTagLogCounts = new CounterMap<String, String>();
+		double unknownWordLogProbability;
+
+		SymbolTable tagIndex;
+		SymbolTable wordIndex;
+		double[][] wordTagScores;
+		int[][] wordPossibleTags;
+		double[] unknownTagScores;
+		int[] unknownPossibleTags;
+
 		public Set<String> getAllTags() {
 			return tagCounter.keySet();
 		}
@@ -496,28 +566,292 @@ public class PCFGParserTester {
 			return p_tag_given_word / p_tag * p_word;
 		}
 
-		/* Builds a lexicon from the observed tags in a list of training trees. */
+		/* Returns -log(scoreTagging(word, tag)), or POSITIVE_INFINITY if
+		 * the tagging has zero probability.  This is a lookup in the table
+		 * built with the lexicon. */
+		public double negLogScoreTagging(String word, String tag) {
+			int t = tagIndex.indexOf(tag);
+			if (t < 0)
+				return Double.POSITIVE_INFINITY;
+			return getTagScores(getWordId(word))[t];
+		}
+
+		/* The tags in the order of the rows of getTagScores(). */
+		public SymbolTable getTagIndex() {
+			return tagIndex;
+		}
+
+		/* Returns the row of a word in the score tables, or -1 if the word
+		 * is unknown. */
+		public int getWordId(String word) {
+			return wordIndex.indexOf(word);
+		}
+
+		/* Returns -log(scoreTagging(word, tag)) for every tag of getTagIndex(),
+		 * for the word with the given id (-1 for unknown words).  The row is
+		 * shared and must not be modified. */
+		public double[] getTagScores(int wordId) {
+			return (wordId < 0 ? unknownTagScores : wordTagScores[wordId]);
+		}
+
+		/* Returns the indices of the tags of nonzero probability for the word
+		 * with the given id (-1 for unknown words), in increasing order. */
+		public int[] getPossibleTags(int wordId) {
+			return (wordId < 0 ? unknownPossibleTags : wordPossibleTags[wordId]);
+		}
+
+		/* Writes the score tables, then the counts behind them, in the
+		 * format of ModelFile.  Counts are listed by tag and word id; the
+		 * word's tag counts are (tag id, count) pairs. */
+		void write(DataOutputStream out) throws IOException {
+			ModelFile.writeStrings(out, tagIndex);
+			ModelFile.writeStrings(out, wordIndex);
+			ModelFile.writeDoubles(out, unknownTagScores);
+			for (double[] tagScores : wordTagScores) {
+				for (double score : tagScores) {
+					out.writeDouble(score);
+				}
+			}
+			out.writeDouble(totalTokens);
+			out.writeDouble(totalWordTypes);
+			for (String tag : tagIndex) {
+				out.writeDouble(tagCounter.getCount(tag));
+				out.writeDouble(typeTagCounter.getCount(tag));
+			}
+			for (String word : wordIndex) {
+				out.writeDouble(wordCounter.getCount(word));
+				Counter<String> tagCounts = wordToTagCounters.getCounter(word);
+				out.writeInt(tagCounts.size());
+				for (int t = 0; t < tagIndex.size(); t++) {
+					if (tagCounts.containsKey(tagIndex.get(t))) {
+						out.writeInt(t);
+						out.writeDouble(tagCounts.getCount(tagIndex.get(t)));
+					}
+				}
+			}
+		}
+
+		/* Reads a lexicon written by write().  The score tables are read
+		 * as they were saved and the counts are restored, so every method
+		 * answers as it did before saving.  Only the log counts used to
+		 * build the tables are left empty. */
+		static Lexicon read(ByteBuffer in) throws IOException {
+			Lexicon lexicon = new Lexicon();
+			lexicon.tagIndex = new SymbolTable(ModelFile.readStrings(in));
+			lexicon.wordIndex = new SymbolTable(ModelFile.readStrings(in));
+			lexicon.unknownTagScores = ModelFile.readDoubles(in);
+			lexicon.unknownPossibleTags = possibleTags(lexicon.unknownTagScores);
+			int numTags = lexicon.tagIndex.size();
+			lexicon.wordTagScores = new double[lexicon.wordIndex.size()][];
+			lexicon.wordPossibleTags = new int[lexicon.wordIndex.size()][];
+			for (int w = 0; w < lexicon.wordTagScores.length; w++) {
+				lexicon.wordTagScores[w] = ModelFile.readDoubles(in, numTags);
+				lexicon.wordPossibleTags[w] = possibleTags(lexicon.wordTagScores[w]);
+			}
+			lexicon.totalTokens = in.getDouble();
+			lexicon.totalWordTypes = in.getDouble();
+			for (String tag : lexicon.tagIndex) {
+				lexicon.tagCounter.setCount(tag, in.getDouble());
+				double typeCount = in.getDouble();
+				if (typeCount != 0.0)
+					lexicon.typeTagCounter.setCount(tag, typeCount);
+			}
+			for (String word : lexicon.wordIndex) {
+				lexicon.wordCounter.setCount(word, in.getDouble());
+				int numTagCounts = in.getInt();
+				for (int i = 0; i < numTagCounts; i++) {
+					String tag = lexicon.tagIndex.get(in.getInt());
+					lexicon.wordToTagCounters.setCount(word, tag, in.getDouble());
+				}
+			}
+			return lexicon;
+		}
+
+		private Lexicon() {
+		}
+
+		private double computeNegLogScoreTagging(String word, String tag) {
+			if (!tagLogProbabilities.containsKey(tag))
+				return Double.POSITIVE_INFINITY;
+			double logCountTagAndWord;
+			double logCountWord;
+			double logProbabilityWord;
+			if (isKnown(word)) {
+				// known words always have a counter, so getCounter() never inserts one
+				Counter<String> tagLogCounts = wordToTagLogCounts.getCounter(word);
+				if (tagLogCounts.containsKey(tag))
+					logCountTagAndWord = tagLogCounts.getCount(tag);
+				else if (wordCounter.getCount(word) < 10)
+					logCountTagAndWord = getUnknownTagLogCount(tag);
+				else
+					return Double.POSITIVE_INFINITY;
+				logCountWord = wordLogCounts.getCount(word);
+				logProbabilityWord = wordLogProbabilities.getCount(word);
+			} else {
+				logCountTagAndWord = getUnknownTagLogCount(tag);
+				logCountWord = 0.0;
+				logProbabilityWord = unknownWordLogProbability;
+			}
+			if (logCountTagAndWord == Double.NEGATIVE_INFINITY)
+				return Double.POSITIVE_INFINITY;
+			return -(logCountTagAndWord - logCountWord - tagLogProbabilities.getCount(tag) + logProbabilityWord);
+		}
+
+		/* Returns the lowest negLogScoreTagging(word, tag) over every word,
+		 * known or unknown: a lower bound on the cost of the tag over any
+		 * word.  This scans the whole score table. */
+		public double bestNegLogScoreTagging(String tag) {
+			int t = tagIndex.indexOf(tag);
+			if (t < 0)
+				return Double.POSITIVE_INFINITY;
+			double best = unknownTagScores[t];
+			for (double[] tagScores : wordTagScores) {
+				best = Math.min(best, tagScores[t]);
+			}
+			return best;
+		}
+
+		private double getUnknownTagLogCount(String tag) {
+			if (!unknownTagLogCounts.containsKey(tag))
+				return Double.NEGATIVE_INFINITY;
+			return unknownTagLogCounts.getCount(tag);
+		}
+
+		/* Builds a lexicon from the observed tags in a list of training trees.
+		 * The trees are counted in parallel, and the merged counts are
+		 * copied in order of first occurrence, so the lexicon is the same
+		 * as when counted one tree at a time. */
 		public Lexicon(List<Tree<String>> trainTrees) {
-			for (Tree<String> trainTree : trainTrees) {
-				List<String> words = trainTree.getYield();
-				List<String> tags = trainTree.getPreTerminalYield();
+			this(ParallelTraining.count(trainTrees, new TaggingTally()));
+		}
+
+		Lexicon(TaggingTally tally) {
+			for (Map.Entry<String, String> firstTagging : tally.firstTags.entrySet()) {
+				totalWordTypes += 1.0;
+				typeTagCounter.incrementCount(firstTagging.getValue(), 1.0);
+			}
+			totalTokens = tally.totalTokens;
+			tagCounter.incrementAll(tally.tagCounter);
+			wordCounter.incrementAll(tally.wordCounter);
+			for (String word : tally.wordToTagCounters.keySet()) {
+				Counter<String> tagCounts = tally.wordToTagCounters.getCounter(word);
+				for (String tag : tagCounts.keySet()) {
+					wordToTagCounters.incrementCount(word, tag, tagCounts.getCount(tag));
+				}
+			}
+			computeLogScores();
+			compileTagScores();
+		}
+
+		/* Word and tag counts over a run of trees, kept in order of first
+		 * occurrence, with the tag each word was first seen with. */
+		static class TaggingTally extends ParallelTraining.Tally<TaggingTally> {
+			double totalTokens = 0.0;
+			Counter<String> tagCounter = new ArrayCounter<String>();
+			Counter<String> wordCounter = new ArrayCounter<String>();
+			CounterMap<String, String> wordToTagCounters = new CounterMap<String, String>(
+					new MapFactory.LinkedHashMapFactory<String, Counter<String>>(),
+					new CounterFactory.ArrayCounterFactory<String>());
+			Map<String, String> firstTags = new LinkedHashMap<String, String>();
+
+			TaggingTally newTally() {
+				return new TaggingTally();
+			}
+
+			void add(Tree<String> tree) {
+				List<String> words = tree.getYield();
+				List<String> tags = tree.getPreTerminalYield();
 				for (int position = 0; position < words.size(); position++) {
 					String word = words.get(position);
 					String tag = tags.get(position);
-					tallyTagging(word, tag);
+					if (!wordCounter.containsKey(word))
+						firstTags.put(word, tag);
+					totalTokens += 1.0;
+					tagCounter.incrementCount(tag, 1.0);
+					wordCounter.incrementCount(word, 1.0);
+					wordToTagCounters.incrementCount(word, tag, 1.0);
+				}
+			}
+
+			void merge(TaggingTally later) {
+				for (Map.Entry<String, String> firstTagging : later.firstTags.entrySet()) {
+					if (!wordCounter.containsKey(firstTagging.getKey()))
+						firstTags.put(firstTagging.getKey(), firstTagging.getValue());
+				}
+				totalTokens += later.totalTokens;
+				tagCounter.incrementAll(later.tagCounter);
+				wordCounter.incrementAll(later.wordCounter);
+				for (String word : later.wordToTagCounters.keySet()) {
+					Counter<String> tagCounts = later.wordToTagCounters.getCounter(word);
+					for (String tag : tagCounts.keySet()) {
+						wordToTagCounters.incrementCount(word, tag, tagCounts.getCount(tag));
+					}
 				}
 			}
 		}
 
-		private void tallyTagging(String word, String tag) {
-			if (! isKnown(word)) {
-				totalWordTypes += 1.0;
-				typeTagCounter.incrementCount(tag, 1.0);
+		/* Precomputes the logs of every term of scoreTagging().  For rare
+		 * words the smoothed tag count is only a sum for tags actually seen
+		 * with the word; for all other tags it is the unknown word count. */
+		private void computeLogScores() {
+			for (String tag : tagCounter.keySet()) {
+				tagLogProbabilities.setCount(tag, Math.log(tagCounter.getCount(tag) / totalTokens));
 			}
-			totalTokens += 1.0;
-			tagCounter.incrementCount(tag, 1.0);
-			wordCounter.incrementCount(word, 1.0);
-			wordToTagCounters.incrementCount(word, tag, 1.0);
+			for (String tag : typeTagCounter.keySet()) {
+				unknownTagLogCounts.setCount(tag, Math.log(typeTagCounter.getCount(tag) / totalWordTypes));
+			}
+			for (String word : wordCounter.keySet()) {
+				double c_word = wordCounter.getCount(word);
+				boolean rare = c_word < 10;
+				if (rare)
+					c_word += 1.0;
+				wordLogCounts.setCount(word, Math.log(c_word));
+				wordLogProbabilities.setCount(word, Math.log((1.0 + c_word) / (totalTokens + totalWordTypes)));
+				Counter<String> tagCounts = wordToTagCounters.getCounter(word);
+				for (String tag : tagCounts.keySet()) {
+					double c_tag_and_word = tagCounts.getCount(tag);
+					if (rare)
+						c_tag_and_word += typeTagCounter.getCount(tag) / totalWordTypes;
+					wordToTagLogCounts.setCount(word, tag, Math.log(c_tag_and_word));
+				}
+			}
+			unknownWordLogProbability = Math.log(2.0 / (totalTokens + totalWordTypes));
+		}
+
+		/* Tabulates negLogScoreTagging() for every known word and tag, and
+		 * for an unknown word, along with the tags of nonzero probability. */
+		private void compileTagScores() {
+			tagIndex = new SymbolTable(CollectionUtils.sort(tagCounter.keySet()));
+			wordIndex = new SymbolTable(wordCounter.keySet());
+			wordTagScores = new double[wordIndex.size()][];
+			wordPossibleTags = new int[wordIndex.size()][];
+			for (int w = 0; w < wordIndex.size(); w++) {
+				wordTagScores[w] = computeTagScores(wordIndex.get(w));
+				wordPossibleTags[w] = possibleTags(wordTagScores[w]);
+			}
+			unknownTagScores = computeTagScores(null);
+			unknownPossibleTags = possibleTags(unknownTagScores);
+		}
+
+		private double[] computeTagScores(String word) {
+			double[] tagScores = new double[tagIndex.size()];
+			for (int t = 0; t < tagScores.length; t++) {
+				tagScores[t] = computeNegLogScoreTagging(word, tagIndex.get(t));
+			}
+			return tagScores;
+		}
+
+		private static int[] possibleTags(double[] tagScores) {
+			int numPossible = 0;
+			for (double score : tagScores) {
+				if (score != Double.POSITIVE_INFINITY) numPossible++;
+			}
+			int[] possible = new int[numPossible];
+			numPossible = 0;
+			for (int t = 0; t < tagScores.length; t++) {
+				if (tagScores[t] != Double.POSITIVE_INFINITY) possible[numPossible++] = t;
+			}
+			return possible;
 		}
 	}
 
@@ -527,7 +861,9 @@ public class PCFGParserTester {
 	/**
 	 * Simple implementation of a PCFG grammar, offering the ability to
 	 * look up rules by their child symbols.  Rule probability estimates
-	 * are just relative frequency estimates off of training trees.
+	 * are just relative frequency estimates off of training trees.  A
+	 * grammar is not modified after construction, so one can be read by
+	 * many parsing threads at once.
 	 */
 	public static class Grammar {
 
@@ -537,6 +873,10 @@ public class PCFGParserTester {
 				new HashMap<String, List<BinaryRule>>();
 		Map<String, List<UnaryRule>> unaryRulesByChild = 
 				new HashMap<String, List<UnaryRule>>();
+		Map<String, List<UnaryRule>> closedUnaryRulesByChild = 
+				new HashMap<String, List<UnaryRule>>();
+		Map<UnaryRule, List<String>> closedUnaryPaths = 
+				new HashMap<UnaryRule, List<String>>();
 
 		Set<String> allNonTerminals = new HashSet<String>();
 
@@ -555,6 +895,21 @@ public class PCFGParserTester {
 			return CollectionUtils.getValueList(unaryRulesByChild, child);
 		}
 
+		/* The transitive closure of the unary rules: one rule for every
+		 * parent reachable from the child through a chain of one or more
+		 * unaries, scored by the best such chain.  Applying these once to
+		 * a cell gives the same scores as applying the plain unary rules
+		 * until nothing changes. */
+		public List<UnaryRule> getClosedUnaryRulesByChild(String child) {
+			return CollectionUtils.getValueList(closedUnaryRulesByChild, child);
+		}
+
+		/* The symbols along the best chain behind a closed unary rule,
+		 * starting with its parent and ending with its child. */
+		public List<String> getClosedUnaryPath(UnaryRule closedRule) {
+			return closedUnaryPaths.get(closedRule);
+		}
+
 		private void computeAllNonTerminals() {
 			for (String leftChild : binaryRulesByLeftChild.keySet()) {
 
@@ -610,12 +965,19 @@ public class PCFGParserTester {
 		 * productions in the training trees to estimate the probabilities
 		 * for those rules.  */ 
 		public Grammar(List<Tree<String>> trainTrees) {
+			this(ParallelTraining.count(trainTrees, new RuleTally()));
+		}
+
+		Grammar(RuleTally tally) {
+			// the trees are counted in parallel; copying the merged counts in
+			// order of first occurrence gives the same rule order as counting
+			// them one at a time
 			Counter<UnaryRule> unaryRuleCounter = new Counter<UnaryRule>();
 			Counter<BinaryRule> binaryRuleCounter = new Counter<BinaryRule>();
 			Counter<String> symbolCounter = new Counter<String>();
-			for (Tree<String> trainTree : trainTrees) {
-				tallyTree(trainTree, symbolCounter, unaryRuleCounter, binaryRuleCounter);
-			}
+			unaryRuleCounter.incrementAll(tally.unaryRuleCounter);
+			binaryRuleCounter.incrementAll(tally.binaryRuleCounter);
+			symbolCounter.incrementAll(tally.symbolCounter);
 			for (UnaryRule unaryRule : unaryRuleCounter.keySet()) {
 				double unaryProbability = 
 						unaryRuleCounter.getCount(unaryRule) / 
@@ -631,10 +993,81 @@ public class PCFGParserTester {
 				addBinary(binaryRule);
 			}
 			computeAllNonTerminals();
+			computeUnaryClosure();
+		}
+
+		/* Finds the best unary chain from each child to each of its unary
+		 * ancestors with a Dijkstra search over the unary rules. */
+		private void computeUnaryClosure() {
+			for (String child : unaryRulesByChild.keySet()) {
+				Map<String, Double> bestCosts = new HashMap<String, Double>();
+				Map<String, String> below = new HashMap<String, String>();
+				PriorityQueue<String> agenda = new PriorityQueue<String>();
+				bestCosts.put(child, 0.0);
+				agenda.add(child, 0.0);
+				while (agenda.hasNext()) {
+					double cost = -agenda.getPriority();
+					String symbol = agenda.next();
+					if (cost > bestCosts.get(symbol)) continue;
+					for (UnaryRule rule : getUnaryRulesByChild(symbol)) {
+						String parent = rule.getParent();
+						double parentCost = cost + rule.getNegLogScore();
+						Double oldCost = bestCosts.get(parent);
+						if (oldCost == null || parentCost < oldCost) {
+							bestCosts.put(parent, parentCost);
+							below.put(parent, symbol);
+							agenda.add(parent, -parentCost);
+						}
+					}
+				}
+				for (String parent : bestCosts.keySet()) {
+					if (parent.equals(child)) continue;
+					List<String> path = new ArrayList<String>();
+					double probability = 1.0;
+					for (String symbol = parent; !symbol.equals(child); symbol = below.get(symbol)) {
+						path.add(symbol);
+						probability *= findUnaryRule(symbol, below.get(symbol)).getScore();
+					}
+					path.add(child);
+					UnaryRule closedRule = new UnaryRule(parent, child);
+					closedRule.setScore(probability);
+					CollectionUtils.addToValueList(closedUnaryRulesByChild, child, closedRule);
+					closedUnaryPaths.put(closedRule, path);
+				}
+			}
+		}
 
+		private UnaryRule findUnaryRule(String parent, String child) {
+			for (UnaryRule rule : getUnaryRulesByChild(child)) {
+				if (rule.getParent().equals(parent))
+					return rule;
+			}
+			return null;
 		}
 
-		private void tallyTree(Tree<String> tree, Counter<String> symbolCounter,
+		/* Rule and symbol counts over a run of trees, kept in order of
+		 * first occurrence. */
+		static class RuleTally extends ParallelTraining.Tally<RuleTally> {
+			Counter<UnaryRule> unaryRuleCounter = new ArrayCounter<UnaryRule>();
+			Counter<BinaryRule> binaryRuleCounter = new ArrayCounter<BinaryRule>();
+			Counter<String> symbolCounter = new ArrayCounter<String>();
+
+			RuleTally newTally() {
+				return new RuleTally();
+			}
+
+			void add(Tree<String> tree) {
+				tallyTree(tree, symbolCounter, unaryRuleCounter, binaryRuleCounter);
+			}
+
+			void merge(RuleTally later) {
+				unaryRuleCounter.incrementAll(later.unaryRuleCounter);
+				binaryRuleCounter.incrementAll(later.binaryRuleCounter);
+				symbolCounter.incrementAll(later.symbolCounter);
+			}
+		}
+
+		private static void tallyTree(Tree<String> tree, Counter<String> symbolCounter,
 				Counter<UnaryRule> unaryRuleCounter, 
 				Counter<BinaryRule> binaryRuleCounter) {
 			if (tree.isLeaf()) return;
@@ -657,11 +1090,11 @@ public class PCFGParserTester {
 			}
 		}
 
-		private UnaryRule makeUnaryRule(Tree<String> tree) {
+		private static UnaryRule makeUnaryRule(Tree<String> tree) {
 			return new UnaryRule(tree.getLabel(), tree.getChildren().get(0).getLabel());
 		}
 
-		private BinaryRule makeBinaryRule(Tree<String> tree) {
+		private static BinaryRule makeBinaryRule(Tree<String> tree) {
 			return new BinaryRule(tree.getLabel(), tree.getChildren().get(0).getLabel(), 
 					tree.getChildren().get(1).getLabel());
 		}
@@ -677,6 +1110,7 @@ public class PCFGParserTester {
 		String leftChild;
 		String rightChild;
 		double score;
+		double negLogScore;
 
 		public String getParent() {
 			return parent;
@@ -696,6 +1130,12 @@ public class PCFGParserTester {
 
 		public void setScore(double score) {
 			this.score = score;
+			this.negLogScore = -Math.log(score);
+		}
+
+		/* The score as a cost, -log(score), computed once in setScore(). */
+		public double getNegLogScore() {
+			return negLogScore;
 		}
 
 		public boolean equals(Object o) {
@@ -742,6 +1182,7 @@ public class PCFGParserTester {
 		String parent;
 		String child;
 		double score;
+		double negLogScore;
 
 		public String getParent() {
 			return parent;
@@ -757,6 +1198,12 @@ public class PCFGParserTester {
 
 		public void setScore(double score) {
 			this.score = score;
+			this.negLogScore = -Math.log(score);
+		}
+
+		/* The score as a cost, -log(score), computed once in setScore(). */
+		public double getNegLogScore() {
+			return negLogScore;
 		}
 
 		public boolean equals(Object o) {
@@ -794,11 +1241,31 @@ public class PCFGParserTester {
 	// Longest sentence length that will be tested on.
 	private static int MAX_LENGTH = 20;
 
-	private static void testParser(Parser parser, List<Tree<String>> testTrees) {
-		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = 
-				new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>
+	// Number of threads parsing test sentences concurrently.
+	private static int NUM_THREADS = 1;
+
+	// Number of threads parsing treebank files; 1 reads them in the calling
+	// thread.
+	private static int READ_THREADS = 1;
+
+	// Whether to read normalized trees through a TreebankCache.
+	private static boolean TREE_CACHE = false;
+
+	// Whether to hold loaded treebanks as CompactTreebanks.
+	private static boolean COMPACT_TREES = false;
+
+	private static EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> newEvaluator() {
+		return new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>
 		(Collections.singleton("ROOT"), 
 				new HashSet<String>(Arrays.asList(new String[] {"''", "``", ".", ":", ","})));
+	}
+
+	private static void testParser(Parser parser, List<Tree<String>> testTrees) {
+		if (NUM_THREADS > 1) {
+			testParserConcurrently(parser, testTrees);
+			return;
+		}
+		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = newEvaluator();
 		for (Tree<String> testTree : testTrees) {
 			List<String> testSentence = testTree.getYield();
 			if (testSentence.size() > MAX_LENGTH)
@@ -811,21 +1278,130 @@ public class PCFGParserTester {
 		eval.display(true);
 	}
 
+	/* Parses the test sentences on NUM_THREADS worker threads.  Each worker
+	 * scores into its own evaluator, and these are merged at the end.  The
+	 * output for each sentence is buffered and printed in sentence order,
+	 * so it matches the single-threaded output.  The parser is shared by
+	 * the workers, which only read its trained Grammar and Lexicon. */
+	private static void testParserConcurrently(final Parser parser, List<Tree<String>> testTrees) {
+		final List<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>> evals =
+				new ArrayList<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>>();
+		final ThreadLocal<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>> threadEval =
+				new ThreadLocal<EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>>() {
+			protected EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> initialValue() {
+				EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = newEvaluator();
+				synchronized (evals) {
+					evals.add(eval);
+				}
+				return eval;
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		List<Future<String>> outputs = new ArrayList<Future<String>>();
+		for (final Tree<String> testTree : testTrees) {
+			final List<String> testSentence = testTree.getYield();
+			if (testSentence.size() > MAX_LENGTH)
+				continue;
+			outputs.add(executor.submit(new Callable<String>() {
+				public String call() {
+					Tree<String> guessedTree = parser.getBestParse(testSentence);
+					StringWriter output = new StringWriter();
+					PrintWriter pw = new PrintWriter(output, true);
+					pw.println("Guess:\n"+Trees.PennTreeRenderer.render(guessedTree));
+					pw.println("Gold:\n"+Trees.PennTreeRenderer.render(testTree));
+					threadEval.get().evaluate(guessedTree, testTree, pw);
+					return output.toString();
+				}
+			}));
+		}
+		try {
+			for (Future<String> output : outputs) {
+				System.out.print(output.get());
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = newEvaluator();
+		for (EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> threadResult : evals) {
+			eval.merge(threadResult);
+		}
+		eval.display(true);
+	}
+
+	/* Passes any engine-specific command-line options on to the parser. */
+	private static void configureParser(Parser parser, Map<String, String> options) {
+		if (parser instanceof CKYParser) {
+			CKYParser ckyParser = (CKYParser) parser;
+			if (options.get("-beamSize") != null)
+				ckyParser.setBeamSize(Integer.parseInt(options.get("-beamSize")));
+			if (options.get("-beamWidth") != null)
+				ckyParser.setBeamWidth(Double.parseDouble(options.get("-beamWidth")));
+			if (options.containsKey("-splitBounds"))
+				ckyParser.setSplitBounds(true);
+			if (options.containsKey("-scalarKernel"))
+				ckyParser.setVectorKernel(false);
+		}
+		if (parser instanceof ParallelCKYParser) {
+			ParallelCKYParser parallelParser = (ParallelCKYParser) parser;
+			if (options.get("-parallelism") != null)
+				parallelParser.setParallelism(Integer.parseInt(options.get("-parallelism")));
+			if (options.get("-sequentialCutoff") != null)
+				parallelParser.setSequentialCutoff(Integer.parseInt(options.get("-sequentialCutoff")));
+		}
+		if (parser instanceof CoarseToFineParser) {
+			if (options.get("-pruningThreshold") != null)
+				((CoarseToFineParser) parser).setPruningThreshold(Double.parseDouble(options.get("-pruningThreshold")));
+		}
+	}
+
+	private static CKYParser getModelParser(Parser parser) {
+		if (!(parser instanceof CKYParser))
+			throw new RuntimeException("-saveModel and -loadModel need a CKYParser, not " + parser.getClass().getName());
+		return (CKYParser) parser;
+	}
+
 	private static List<Tree<String>> readTrees(String basePath, int low,
 			int high) {
-		Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath,
-				low, high);
-		// normalize trees
-		Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
+		if (COMPACT_TREES)
+			return CompactTreebank.fromTrees(streamTrees(basePath, low, high), SymbolTable.labels()).asList();
 		List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
-		for (Tree<String> tree : trees) {
-			Tree<String> normalizedTree = treeTransformer.transformTree(tree);
-			// System.out.println(Trees.PennTreeRenderer.render(normalizedTree));
-			normalizedTreeList.add(normalizedTree);
+		Iterator<Tree<String>> trees = streamTrees(basePath, low, high);
+		while (trees.hasNext()) {
+			normalizedTreeList.add(trees.next());
 		}
 		return normalizedTreeList;
 	}
 
+	/* Reads and normalizes the trees one at a time, as they are asked for.
+	 * With -treeCache they are decoded from the binary TreebankCache
+	 * instead, which is built on first use. */
+	private static Iterator<Tree<String>> streamTrees(String basePath, int low,
+			int high) {
+		if (TREE_CACHE)
+			return TreebankCache.readTrees(basePath, low, high,
+					new Trees.StandardTreeNormalizer(), READ_THREADS).iterator();
+		final Iterator<Tree<String>> trees = PennTreebankReader.readTrees(basePath,
+				low, high, READ_THREADS, true).iterator();
+		final Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
+		return new Iterator<Tree<String>>() {
+			public boolean hasNext() {
+				return trees.hasNext();
+			}
+
+			public Tree<String> next() {
+				return treeTransformer.transformTree(trees.next());
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
 	public static void main(String[] args) {
 
 		// set up default options ..............................................
@@ -834,6 +1410,7 @@ public class PCFGParserTester {
 		options.put("-data",      "miniTest");
 		options.put("-parser",    "cs224n.assignments.PCFGParserTester$BaselineParser");
 		options.put("-maxLength", "20");
+		options.put("-threads",   "1");
 
 		// let command-line options supersede defaults .........................
 		options.putAll(CommandLineUtils.simpleCommandLineParser(args));
@@ -844,6 +1421,13 @@ public class PCFGParserTester {
 		System.out.println();
 
 		MAX_LENGTH = Integer.parseInt(options.get("-maxLength"));
+		NUM_THREADS = Integer.parseInt(options.get("-threads"));
+		TREE_CACHE = options.containsKey("-treeCache");
+		COMPACT_TREES = options.containsKey("-compactTrees");
+		if (options.get("-readThreads") != null)
+			READ_THREADS = Integer.parseInt(options.get("-readThreads"));
+		if (options.get("-trainThreads") != null)
+			ParallelTraining.setParallelism(Integer.parseInt(options.get("-trainThreads")));
 
 		Parser parser;
 		try {
@@ -852,6 +1436,12 @@ public class PCFGParserTester {
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
+		configureParser(parser, options);
+		// fail now rather than after training
+		if (options.get("-saveModel") != null || options.get("-loadModel") != null)
+			getModelParser(parser);
+		if (options.containsKey("-streamTraining") && !(parser instanceof StreamingParser))
+			throw new RuntimeException("-streamTraining needs a StreamingParser, not " + parser.getClass().getName());
 		System.out.println("Using parser: " + parser);
 
 		String basePath = options.get("-path");
@@ -868,21 +1458,36 @@ public class PCFGParserTester {
 		if (!basePath.endsWith("/"))
 			basePath += "/";
 		basePath += dataSet;
+		// with a model file there is nothing to train
+		boolean train = (options.get("-loadModel") == null);
+		// a streaming parser reads its training trees while it trains
+		boolean streamTraining = (train && options.containsKey("-streamTraining"));
+		int trainLow, trainHigh;
 		if (dataSet.equals("miniTest")) {
-			System.out.print("Loading training trees...");
-			trainTrees = readTrees(basePath, 1, 3);
-			System.out.println("done.");
+			trainLow = 1;
+			trainHigh = 3;
+			if (train && !streamTraining) {
+				System.out.print("Loading training trees...");
+				trainTrees = readTrees(basePath, trainLow, trainHigh);
+				System.out.println("done.");
+			}
 			System.out.print("Loading test trees...");
 			testTrees = readTrees(basePath, 4, 4);
 			System.out.println("done.");
 		}
 		else if (dataSet.equals("treebank")) {
-			System.out.print("Loading training trees...");
-			trainTrees = readTrees(basePath, 200, 2199);
-			System.out.println("done.");
-			System.out.print("Loading validation trees...");
-			validationTrees = readTrees(basePath, 2200, 2299);
-			System.out.println("done.");
+			trainLow = 200;
+			trainHigh = 2199;
+			if (train && !streamTraining) {
+				System.out.print("Loading training trees...");
+				trainTrees = readTrees(basePath, trainLow, trainHigh);
+				System.out.println("done.");
+			}
+			if (train) {
+				System.out.print("Loading validation trees...");
+				validationTrees = readTrees(basePath, 2200, 2299);
+				System.out.println("done.");
+			}
 			System.out.print("Loading test trees...");
 			testTrees = readTrees(basePath, 2300, 2319);
 			System.out.println("done.");
@@ -890,7 +1495,26 @@ public class PCFGParserTester {
 		else {
 			throw new RuntimeException("Bad data set mode: "+ dataSet+", use miniTest, or treebank."); 
 		}
-		parser.train(trainTrees);
+		try {
+			if (train) {
+				if (streamTraining) {
+					System.out.print("Training from streamed trees...");
+					((StreamingParser) parser).train(streamTrees(basePath, trainLow, trainHigh));
+					System.out.println("done.");
+				} else {
+					parser.train(trainTrees);
+				}
+				if (options.get("-saveModel") != null) {
+					getModelParser(parser).saveModel(new File(options.get("-saveModel")));
+					System.out.println("Saved model to " + options.get("-saveModel"));
+				}
+			} else {
+				getModelParser(parser).loadModel(new File(options.get("-loadModel")));
+				System.out.println("Loaded model from " + options.get("-loadModel"));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 		testParser(parser, testTrees);
 
 		/*List<Tree<String>> test1 = new ArrayList<Tree<String>>();
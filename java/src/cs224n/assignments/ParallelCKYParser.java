@@ -0,0 +1,124 @@
+package cs224n.assignments;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A CKYParser which fills the cells of each span length in parallel on
+ * a fork-join pool.  Cells of one length only read shorter spans, so
+ * they are independent, and each is filled by the same code as in
+ * CKYParser; the charts, and so the parses, are identical.  Spans
+ * shorter than the sequential cutoff are filled on the calling thread,
+ * since their cells are too cheap to be worth a task.
+ */
+public class ParallelCKYParser extends CKYParser {
+
+	int parallelism = Runtime.getRuntime().availableProcessors();
+	int sequentialCutoff = 4;
+	ForkJoinPool pool;
+
+	// one set of tasks per parsing thread, reset for each sentence
+	private final ThreadLocal<ChartTask> chartTasks = new ThreadLocal<ChartTask>() {
+		protected ChartTask initialValue() {
+			return new ChartTask();
+		}
+	};
+
+	/* Replaces the pool, shutting the old one down once its work is
+	 * done, so call it between parses. */
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	public void setSequentialCutoff(int sequentialCutoff) {
+		this.sequentialCutoff = sequentialCutoff;
+	}
+
+	synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	void fillChart(List<String> sentence, Chart chart) {
+		int n = sentence.size();
+		for (int i = 0; i < n; i++) {
+			fillLexicalCell(sentence.get(i), chart, i);
+		}
+		int firstParallelSpan = Math.max(sequentialCutoff, 2);
+		for (int span = 2; span < firstParallelSpan && span <= n; span++) {
+			for (int begin = 0; begin <= n - span; begin++) {
+				fillCell(chart, begin, begin + span);
+			}
+		}
+		if (firstParallelSpan > n)
+			return;
+		ForkJoinPool pool = getPool();
+		ChartTask task = chartTasks.get();
+		task.reset(chart, firstParallelSpan, n, pool.getParallelism());
+		pool.invoke(task);
+	}
+
+	/* Fills the cells of every span length from firstSpan up to the whole
+	 * sentence, one length after another.  The cells of a length are
+	 * shared out among this task and its helpers, which claim begin
+	 * positions from a counter until there are none left.  The tasks are
+	 * reinitialized and reused for each sentence, so that filling the
+	 * chart allocates nothing. */
+	class ChartTask extends RecursiveAction {
+		Chart chart;
+		int firstSpan;
+		int length;
+		int span;
+		final AtomicInteger nextBegin = new AtomicInteger();
+		HelperTask[] helpers = new HelperTask[0];
+
+		void reset(Chart chart, int firstSpan, int length, int numWorkers) {
+			reinitialize();
+			this.chart = chart;
+			this.firstSpan = firstSpan;
+			this.length = length;
+			if (helpers.length != numWorkers - 1) {
+				helpers = new HelperTask[numWorkers - 1];
+				for (int h = 0; h < helpers.length; h++) {
+					helpers[h] = new HelperTask();
+				}
+			}
+		}
+
+		protected void compute() {
+			for (span = firstSpan; span <= length; span++) {
+				nextBegin.set(0);
+				int numHelpers = Math.min(helpers.length, length - span);
+				for (int h = 0; h < numHelpers; h++) {
+					helpers[h].reinitialize();
+					helpers[h].fork();
+				}
+				fillCells();
+				for (int h = 0; h < numHelpers; h++) {
+					helpers[h].join();
+				}
+			}
+		}
+
+		/* Fills cells of the current span length until none are left. */
+		void fillCells() {
+			int numCells = length - span + 1;
+			for (int begin = nextBegin.getAndIncrement(); begin < numCells; begin = nextBegin.getAndIncrement()) {
+				fillCell(chart, begin, begin + span);
+			}
+		}
+
+		class HelperTask extends RecursiveAction {
+			protected void compute() {
+				fillCells();
+			}
+		}
+	}
+}
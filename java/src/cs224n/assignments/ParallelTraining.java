@@ -0,0 +1,148 @@
+package cs224n.assignments;
+
+import cs224n.assignments.PCFGParserTester.TreeAnnotations;
+import cs224n.ling.Tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Annotates and counts training trees on a fork-join pool.  The list is
+ * split in halves down to runs of CHUNK_SIZE trees; each run is counted
+ * into its own Tally, and the two halves' tallies are merged, earlier
+ * into later order, on the way back up.  Counts are sums of whole
+ * numbers, so they come out exact whatever the split.
+ */
+public class ParallelTraining {
+	static final int CHUNK_SIZE = 256;
+	static final int BATCH_CHUNKS = 4;
+
+	// Number of fork-join workers; 1 annotates and counts in the
+	// calling thread, without a pool.
+	static int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// made on first use and kept for every later run, so that streamed
+	// training does not start a pool per batch
+	private static ForkJoinPool pool;
+
+	public static synchronized void setParallelism(int parallelism) {
+		ParallelTraining.parallelism = parallelism;
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * Counts over a run of consecutive trees.  merge() adds the counts
+	 * of the run that immediately follows this one.
+	 */
+	static abstract class Tally<T extends Tally<T>> {
+		abstract T newTally();
+		abstract void add(Tree<String> tree);
+		abstract void merge(T later);
+	}
+
+	/* Returns TreeAnnotations.annotateTree() of every tree, in order. */
+	public static List<Tree<String>> annotateTrees(final List<Tree<String>> trees) {
+		final List<Tree<String>> annotatedTrees =
+				new ArrayList<Tree<String>>(Collections.<Tree<String>>nCopies(trees.size(), null));
+		if (parallelism <= 1) {
+			for (int i = 0; i < trees.size(); i++) {
+				annotatedTrees.set(i, TreeAnnotations.annotateTree(trees.get(i)));
+			}
+			return annotatedTrees;
+		}
+		getPool().invoke(new RecursiveTask<Void>() {
+			protected Void compute() {
+				annotate(trees, annotatedTrees, 0, trees.size());
+				return null;
+			}
+		});
+		return annotatedTrees;
+	}
+
+	private static void annotate(final List<Tree<String>> trees, final List<Tree<String>> annotatedTrees,
+			final int begin, final int end) {
+		if (end - begin <= CHUNK_SIZE) {
+			for (int i = begin; i < end; i++) {
+				annotatedTrees.set(i, TreeAnnotations.annotateTree(trees.get(i)));
+			}
+			return;
+		}
+		final int middle = (begin + end) / 2;
+		RecursiveAction left = new RecursiveAction() {
+			protected void compute() {
+				annotate(trees, annotatedTrees, begin, middle);
+			}
+		};
+		left.fork();
+		annotate(trees, annotatedTrees, middle, end);
+		left.join();
+	}
+
+	/* Counts a stream of trees, a batch of BATCH_CHUNKS chunks per
+	 * thread at a time, so that only one batch is held in memory. */
+	public static <T extends Tally<T>> T count(Iterator<Tree<String>> trees, T empty) {
+		T tally = empty.newTally();
+		int batchSize = Math.max(parallelism, 1) * BATCH_CHUNKS * CHUNK_SIZE;
+		List<Tree<String>> batch = new ArrayList<Tree<String>>(batchSize);
+		while (trees.hasNext()) {
+			batch.clear();
+			while (batch.size() < batchSize && trees.hasNext()) {
+				batch.add(trees.next());
+			}
+			tally.merge(count(batch, empty));
+		}
+		return tally;
+	}
+
+	/* Counts every tree into a new tally made by empty.newTally(). */
+	public static <T extends Tally<T>> T count(final List<Tree<String>> trees, final T empty) {
+		if (parallelism <= 1) {
+			T tally = empty.newTally();
+			for (Tree<String> tree : trees) {
+				tally.add(tree);
+			}
+			return tally;
+		}
+		return getPool().invoke(new RecursiveTask<T>() {
+			protected T compute() {
+				return count(trees, empty, 0, trees.size());
+			}
+		});
+	}
+
+	private static <T extends Tally<T>> T count(final List<Tree<String>> trees, final T empty,
+			final int begin, final int end) {
+		if (end - begin <= CHUNK_SIZE) {
+			T tally = empty.newTally();
+			for (int i = begin; i < end; i++) {
+				tally.add(trees.get(i));
+			}
+			return tally;
+		}
+		final int middle = (begin + end) / 2;
+		RecursiveTask<T> left = new RecursiveTask<T>() {
+			protected T compute() {
+				return count(trees, empty, begin, middle);
+			}
+		};
+		left.fork();
+		T later = count(trees, empty, middle, end);
+		T tally = left.join();
+		tally.merge(later);
+		return tally;
+	}
+}
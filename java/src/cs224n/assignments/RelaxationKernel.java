@@ -0,0 +1,17 @@
+package cs224n.assignments;
+
+/**
+ * The innermost loops of the CKY parsers: relaxing the parents of one
+ * child pair, or of one unary child, within a cell.  A parent's score
+ * is replaced only when the new score is strictly lower, in which case
+ * its backpointer is replaced too.  Implementations must produce
+ * bit-identical charts.
+ */
+interface RelaxationKernel {
+	/* Relaxes the parents of child pair p at split, given the sum of
+	 * the two children's scores. */
+	void relaxBinaryRules(double[] scores, long[] backpointers, int base, int p, double childScore, int split);
+
+	/* Relaxes the parents of child through the closed unary rules. */
+	void relaxUnaryRules(double[] scores, long[] backpointers, int base, int child, double childScore);
+}
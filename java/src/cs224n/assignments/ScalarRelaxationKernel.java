@@ -0,0 +1,38 @@
+package cs224n.assignments;
+
+/**
+ * The plain Java RelaxationKernel, used whenever the SIMD kernel is not.
+ */
+class ScalarRelaxationKernel implements RelaxationKernel {
+	CompiledGrammar grammar;
+
+	public void relaxBinaryRules(double[] scores, long[] backpointers, int base, int p, double childScore, int split) {
+		for (int i = grammar.pairRuleStart[p]; i < grammar.pairRuleStart[p + 1]; i++) {
+			double score = childScore + grammar.pairScore[i];
+			int parent = base + grammar.pairParent[i];
+			if (score < scores[parent]) {
+				scores[parent] = score;
+				backpointers[parent] = Chart.binaryBackpointer(grammar.pairRule[i], split);
+			}
+		}
+	}
+
+	public void relaxUnaryRules(double[] scores, long[] backpointers, int base, int child, double childScore) {
+		for (int r = grammar.unaryByChildStart[child]; r < grammar.unaryByChildStart[child + 1]; r++) {
+			double score = childScore + grammar.unaryScore[r];
+			int parent = base + grammar.unaryParent[r];
+			if (score < scores[parent]) {
+				scores[parent] = score;
+				backpointers[parent] = Chart.unaryBackpointer(r);
+			}
+		}
+	}
+
+	public String toString() {
+		return "scalar";
+	}
+
+	ScalarRelaxationKernel(CompiledGrammar grammar) {
+		this.grammar = grammar;
+	}
+}
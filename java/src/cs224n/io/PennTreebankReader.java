@@ -6,6 +6,7 @@ import cs224n.util.ConcatenationIterator;
 import cs224n.io.NumberRangeFileFilter;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 /**
@@ -13,9 +14,178 @@ import java.io.*;
  */
 public class PennTreebankReader {
 
-  static class TreeCollection extends AbstractCollection<Tree<String>> {
+  /**
+   * The trees of a list of files, parsed each time they are iterated over.
+   * size() and get() instead use the files' TreebankIndex sidecars, which
+   * are built the first time and then only reread.
+   */
+  public static class TreeCollection extends AbstractCollection<Tree<String>> {
 
     List<File> files;
+    int numThreads = 1;
+    boolean ordered = true;
+    TreebankIndex.FileEntry[] fileEntries;
+    // firstTrees[f] is the number of trees before file f
+    int[] firstTrees;
+
+    /**
+     * Iterates over the trees of one file with Trees.PennTreeScanner, which
+     * closes the file once it has been read into memory (or mapped).
+     */
+    static Iterator<Tree<String>> fileTreeIterator(File file) throws IOException {
+      return Trees.PennTreeScanner.open(file);
+    }
+
+    /**
+     * Iterates over the trees of one file with Trees.PennTreeReader, and
+     * closes the file as soon as its last tree has been read, or reading it
+     * fails.  This is the reference that PennTreeScanner is checked
+     * against.
+     */
+    static class FileTreeIterator implements Iterator<Tree<String>> {
+      Reader reader;
+      Iterator<Tree<String>> treeIterator;
+
+      public boolean hasNext() {
+        return treeIterator.hasNext();
+      }
+
+      public Tree<String> next() {
+        try {
+          Tree<String> tree = treeIterator.next();
+          if (! treeIterator.hasNext())
+            close();
+          return tree;
+        } catch (RuntimeException e) {
+          close();
+          throw e;
+        }
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      private void close() {
+        try {
+          reader.close();
+        } catch (IOException e) {
+        }
+      }
+
+      FileTreeIterator(File file) throws FileNotFoundException {
+        this.reader = new BufferedReader(new FileReader(file));
+        try {
+          this.treeIterator = new Trees.PennTreeReader(reader);
+        } catch (RuntimeException e) {
+          close();
+          throw e;
+        }
+        if (! treeIterator.hasNext())
+          close();
+      }
+    }
+
+    /**
+     * Reads a file's trees into a list, in a worker thread.  Like
+     * ConcatenationIterator, a file that fails to parse contributes the
+     * trees before the failure.
+     */
+    static class FileReadTask implements Callable<FileReadTask> {
+      File file;
+      List<Tree<String>> trees = new ArrayList<Tree<String>>();
+
+      public FileReadTask call() {
+        try {
+          Iterator<Tree<String>> treeIterator = fileTreeIterator(file);
+          while (treeIterator.hasNext()) {
+            trees.add(treeIterator.next());
+          }
+        } catch (IOException e) {
+        } catch (RuntimeException e) {
+          System.err.println("bad file");
+        }
+        return this;
+      }
+
+      FileReadTask(File file) {
+        this.file = file;
+      }
+    }
+
+    /**
+     * Parses the files on a pool of worker threads, keeping at most a few
+     * files per thread parsed ahead of the consumer.  In ordered mode the
+     * files' trees are returned in file order, otherwise in the order the
+     * files finish parsing.  The pool's threads are daemons, and the pool
+     * is shut down once every file has been returned.
+     */
+    static class ParallelTreeIteratorIterator implements Iterator<Iterator<Tree<String>>> {
+      static final int FILES_AHEAD_PER_THREAD = 4;
+
+      Iterator<File> fileIterator;
+      boolean ordered;
+      int maxPending;
+      ExecutorService pool;
+      CompletionService<FileReadTask> completionService;
+      LinkedList<Future<FileReadTask>> pending = new LinkedList<Future<FileReadTask>>();
+
+      public boolean hasNext() {
+        return ! pending.isEmpty();
+      }
+
+      public Iterator<Tree<String>> next() {
+        if (! hasNext())
+          throw new NoSuchElementException();
+        FileReadTask task;
+        try {
+          if (ordered) {
+            task = pending.removeFirst().get();
+          } else {
+            Future<FileReadTask> done = completionService.take();
+            pending.remove(done);
+            task = done.get();
+          }
+        } catch (InterruptedException e) {
+          pool.shutdownNow();
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          pool.shutdownNow();
+          throw new RuntimeException(e.getCause());
+        }
+        submit();
+        System.out.println(task.file.getName());
+        return task.trees.iterator();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      private void submit() {
+        while (pending.size() < maxPending && fileIterator.hasNext()) {
+          pending.add(completionService.submit(new FileReadTask(fileIterator.next())));
+        }
+        if (! fileIterator.hasNext())
+          pool.shutdown();
+      }
+
+      ParallelTreeIteratorIterator(List<File> files, int numThreads, boolean ordered) {
+        this.fileIterator = files.iterator();
+        this.ordered = ordered;
+        this.maxPending = numThreads * FILES_AHEAD_PER_THREAD;
+        this.pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "PennTreebankReader");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        this.completionService = new ExecutorCompletionService<FileReadTask>(pool);
+        submit();
+      }
+    }
 
     static class TreeIteratorIterator implements Iterator<Iterator<Tree<String>>> {
       Iterator<File> fileIterator;
@@ -41,8 +211,8 @@ public class PennTreebankReader {
           try {
             File file = fileIterator.next();
             System.out.println(file.getName());
-            nextTreeIterator = new Trees.PennTreeReader(new BufferedReader(new FileReader(file)));
-          } catch (FileNotFoundException e) {
+            nextTreeIterator = fileTreeIterator(file);
+          } catch (IOException e) {
           }
         }
       }
@@ -54,17 +224,63 @@ public class PennTreebankReader {
     }
 
     public Iterator<Tree<String>> iterator() {
+      if (numThreads > 1)
+        return new ConcatenationIterator<Tree<String>>(new ParallelTreeIteratorIterator(files, numThreads, ordered));
       return new ConcatenationIterator<Tree<String>>(new TreeIteratorIterator(files));
     }
 
     public int size() {
-      int size = 0;
-      Iterator i = iterator();
-      while (i.hasNext()) {
-        size++;
-        i.next();
+      buildIndex();
+      return firstTrees[files.size()];
+    }
+
+    /**
+     * Returns the index'th tree, in iteration order, reading just that tree
+     * from its file.
+     */
+    public Tree<String> get(int index) {
+      buildIndex();
+      if (index < 0 || index >= firstTrees[files.size()])
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + firstTrees[files.size()]);
+      int file = Arrays.binarySearch(firstTrees, index);
+      if (file < 0) {
+        file = -file - 2;
+      } else {
+        // skip over files without trees
+        while (firstTrees[file + 1] == index) file++;
+      }
+      int[] treeStarts = fileEntries[file].treeStarts;
+      int tree = index - firstTrees[file];
+      int nextStart = (tree + 1 < treeStarts.length ? treeStarts[tree + 1] : -1);
+      try {
+        return TreebankIndex.readTree(files.get(file), treeStarts[tree], nextStart);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private synchronized void buildIndex() {
+      if (firstTrees != null)
+        return;
+      Map<File, TreebankIndex> indexes = new HashMap<File, TreebankIndex>();
+      TreebankIndex.FileEntry[] fileEntries = new TreebankIndex.FileEntry[files.size()];
+      int[] firstTrees = new int[files.size() + 1];
+      for (int f = 0; f < files.size(); f++) {
+        File file = files.get(f);
+        File directory = file.getAbsoluteFile().getParentFile();
+        TreebankIndex index = indexes.get(directory);
+        if (index == null) {
+          index = TreebankIndex.load(directory);
+          indexes.put(directory, index);
+        }
+        fileEntries[f] = index.getEntry(file);
+        firstTrees[f + 1] = firstTrees[f] + fileEntries[f].treeStarts.length;
+      }
+      for (TreebankIndex index : indexes.values()) {
+        index.save();
       }
-      return size;
+      this.fileEntries = fileEntries;
+      this.firstTrees = firstTrees;
     }
 
     private List<File> getFilesUnder(String path, FileFilter fileFilter) {
@@ -120,7 +336,70 @@ public class PennTreebankReader {
     return new TreeCollection(path);
   }
 
-  public static void main(String[] args) {
+  /**
+   * Like readTrees(path, lowFileNum, highFileNumber), but iterating parses
+   * the files on numThreads worker threads.  If ordered is false, each
+   * file's trees still come out together and in order, but the files come
+   * out in the order they finish parsing.
+   */
+  public static Collection<Tree<String>> readTrees(String path, int lowFileNum, int highFileNumber,
+                                                   int numThreads, boolean ordered) {
+    TreeCollection trees = new TreeCollection(path, lowFileNum, highFileNumber);
+    trees.numThreads = numThreads;
+    trees.ordered = ordered;
+    return trees;
+  }
+
+  public static Collection<Tree<String>> readTrees(String path, int numThreads, boolean ordered) {
+    TreeCollection trees = new TreeCollection(path);
+    trees.numThreads = numThreads;
+    trees.ordered = ordered;
+    return trees;
+  }
+
+  /**
+   * Parses every file under path with both Trees.PennTreeReader and
+   * Trees.PennTreeScanner, and reports the files where they differ.
+   */
+  public static boolean checkScanner(String path) throws IOException {
+    TreeCollection collection = new TreeCollection(path);
+    boolean same = true;
+    int numTrees = 0;
+    for (File file : collection.files) {
+      List<String> expected = new ArrayList<String>();
+      List<String> actual = new ArrayList<String>();
+      String expectedError = null, actualError = null;
+      try {
+        Iterator<Tree<String>> trees = new TreeCollection.FileTreeIterator(file);
+        while (trees.hasNext()) {
+          expected.add(trees.next().toString());
+        }
+      } catch (RuntimeException e) {
+        expectedError = e.getMessage();
+      }
+      try {
+        Iterator<Tree<String>> trees = TreeCollection.fileTreeIterator(file);
+        while (trees.hasNext()) {
+          actual.add(trees.next().toString());
+        }
+      } catch (RuntimeException e) {
+        actualError = e.getMessage();
+      }
+      numTrees += expected.size();
+      if (! expected.equals(actual) || (expectedError == null) != (actualError == null)) {
+        System.out.println("Differs: " + file);
+        same = false;
+      }
+    }
+    System.out.println("Checked " + numTrees + " trees in " + collection.files.size() + " files: "
+                       + (same ? "identical" : "DIFFERENT"));
+    return same;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args[0].equals("-check")) {
+      System.exit(checkScanner(args[1]) ? 0 : 1);
+    }
     Collection<Tree<String>> trees = readTrees(args[0]);
     for (Tree<String> tree : trees) {
       tree = (new Trees.StandardTreeNormalizer()).transformTree(tree);
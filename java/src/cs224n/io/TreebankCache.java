@@ -0,0 +1,287 @@
+package cs224n.io;
+
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+import cs224n.util.SymbolTable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A binary cache of normalized treebank trees, so that the bracketed text
+ * is parsed and normalized once rather than on every run.  A cache file
+ * holds a magic number, a format version, the normalizer's class name, the
+ * length and modification time of every source file, and the symbols.
+ * Then come the trees: the offset of each tree's first node, and for every
+ * node in preorder its symbol id and its number of children.  Everything is
+ * big-endian, and strings are UTF-8 behind their byte length.
+ *
+ * The cache is read through a read-only memory map, and trees are rebuilt
+ * from it one at a time as they are iterated over.  If the source files
+ * have changed, or the cache cannot be read, it is rebuilt from the text;
+ * if it cannot be written, the trees are just kept in memory.
+ */
+public class TreebankCache {
+  static final int MAGIC = 0x54524545; // "TREE"
+  static final int VERSION = 1;
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * Trees decoded on demand from the cache arrays.  A tree of no nodes is
+   * a tree the normalizer removed entirely (null).
+   */
+  static class CachedTrees extends AbstractCollection<Tree<String>> {
+    String[] symbols;
+    int[] treeStarts;
+    IntBuffer labels;
+    CharBuffer arities;
+
+    public int size() {
+      return treeStarts.length - 1;
+    }
+
+    public Iterator<Tree<String>> iterator() {
+      return new Iterator<Tree<String>>() {
+        int tree = 0;
+
+        public boolean hasNext() {
+          return tree < size();
+        }
+
+        public Tree<String> next() {
+          if (! hasNext())
+            throw new NoSuchElementException();
+          return get(tree++);
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public Tree<String> get(int tree) {
+      if (treeStarts[tree] == treeStarts[tree + 1])
+        return null;
+      int[] node = { treeStarts[tree] };
+      return decode(node);
+    }
+
+    /* Rebuilds the subtree whose root is node[0], leaving node[0] just past
+     * its last node. */
+    private Tree<String> decode(int[] node) {
+      String label = symbols[labels.get(node[0])];
+      int arity = arities.get(node[0]);
+      node[0]++;
+      if (arity == 0)
+        return new Tree<String>(label);
+      List<Tree<String>> children = new ArrayList<Tree<String>>(arity);
+      for (int c = 0; c < arity; c++) {
+        children.add(decode(node));
+      }
+      return new Tree<String>(label, children);
+    }
+  }
+
+  /**
+   * Returns the trees of the files numbered lowFileNum to highFileNum under
+   * path, normalized by normalizer, from the cache file in path if it is
+   * current, and otherwise by reading the text (on numThreads threads) and
+   * rebuilding the cache.
+   */
+  public static Collection<Tree<String>> readTrees(String path, int lowFileNum, int highFileNum,
+                                                   Trees.TreeTransformer<String> normalizer, int numThreads) {
+    PennTreebankReader.TreeCollection source = new PennTreebankReader.TreeCollection(path, lowFileNum, highFileNum);
+    source.numThreads = numThreads;
+    File cacheFile = new File(path, ".treebank-cache-" + lowFileNum + "-" + highFileNum);
+    return readTrees(source, cacheFile, normalizer);
+  }
+
+  static Collection<Tree<String>> readTrees(PennTreebankReader.TreeCollection source, File cacheFile,
+                                           Trees.TreeTransformer<String> normalizer) {
+    String normalizerName = normalizer.getClass().getName();
+    if (cacheFile.isFile()) {
+      try {
+        CachedTrees trees = read(cacheFile, source.files, normalizerName);
+        if (trees != null)
+          return trees;
+      } catch (IOException e) {
+        System.err.println("Rebuilding " + cacheFile + ": " + e.getMessage());
+      }
+    }
+    CachedTrees trees = build(source, normalizer);
+    try {
+      write(cacheFile, trees, source.files, normalizerName);
+    } catch (IOException e) {
+      // a read-only treebank: keep the trees in memory only
+    }
+    return trees;
+  }
+
+  /* Parses and normalizes the source trees into cache arrays. */
+  static CachedTrees build(Collection<Tree<String>> source, Trees.TreeTransformer<String> normalizer) {
+    Map<String, Integer> symbolIds = new HashMap<String, Integer>();
+    List<String> symbols = new ArrayList<String>();
+    IntList treeStarts = new IntList();
+    IntList labels = new IntList();
+    StringBuilder arities = new StringBuilder();
+    treeStarts.add(0);
+    for (Tree<String> tree : source) {
+      Tree<String> normalizedTree = normalizer.transformTree(tree);
+      if (normalizedTree != null)
+        encode(normalizedTree, symbolIds, symbols, labels, arities);
+      treeStarts.add(labels.size);
+    }
+    CachedTrees trees = new CachedTrees();
+    trees.symbols = symbols.toArray(new String[symbols.size()]);
+    trees.treeStarts = treeStarts.toArray();
+    trees.labels = IntBuffer.wrap(labels.toArray());
+    trees.arities = CharBuffer.wrap(arities.toString().toCharArray());
+    return trees;
+  }
+
+  private static void encode(Tree<String> tree, Map<String, Integer> symbolIds, List<String> symbols,
+                             IntList labels, StringBuilder arities) {
+    Integer id = symbolIds.get(tree.getLabel());
+    if (id == null) {
+      id = symbols.size();
+      symbolIds.put(tree.getLabel(), id);
+      symbols.add(tree.getLabel());
+    }
+    List<Tree<String>> children = tree.getChildren();
+    if (children.size() > Character.MAX_VALUE)
+      throw new IllegalArgumentException("too many children to cache: " + children.size());
+    labels.add(id);
+    arities.append((char) children.size());
+    for (Tree<String> child : children) {
+      encode(child, symbolIds, symbols, labels, arities);
+    }
+  }
+
+  static void write(File file, CachedTrees trees, List<File> sourceFiles, String normalizerName) throws IOException {
+    File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, normalizerName);
+        out.writeInt(sourceFiles.size());
+        for (File sourceFile : sourceFiles) {
+          writeString(out, sourceFile.getPath());
+          out.writeLong(sourceFile.length());
+          out.writeLong(sourceFile.lastModified());
+        }
+        out.writeInt(trees.symbols.length);
+        for (String symbol : trees.symbols) {
+          writeString(out, symbol);
+        }
+        out.writeInt(trees.size());
+        out.writeInt(trees.labels.limit());
+        for (int treeStart : trees.treeStarts) {
+          out.writeInt(treeStart);
+        }
+        for (int node = 0; node < trees.labels.limit(); node++) {
+          out.writeInt(trees.labels.get(node));
+        }
+        for (int node = 0; node < trees.arities.limit(); node++) {
+          out.writeChar(trees.arities.get(node));
+        }
+      } finally {
+        out.close();
+      }
+      if (! tempFile.renameTo(file)) {
+        file.delete();
+        if (! tempFile.renameTo(file))
+          throw new IOException("cannot replace " + file);
+      }
+    } finally {
+      tempFile.delete();
+    }
+  }
+
+  /**
+   * Reads a cache file, or returns null if it was built from other source
+   * files or with another normalizer.
+   */
+  static CachedTrees read(File file, List<File> sourceFiles, String normalizerName) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION)
+        return null;
+      if (! readString(in).equals(normalizerName))
+        return null;
+      int numFiles = in.getInt();
+      if (numFiles != sourceFiles.size())
+        return null;
+      for (File sourceFile : sourceFiles) {
+        if (! readString(in).equals(sourceFile.getPath())
+            || in.getLong() != sourceFile.length()
+            || in.getLong() != sourceFile.lastModified())
+          return null;
+      }
+      CachedTrees trees = new CachedTrees();
+      trees.symbols = new String[in.getInt()];
+      SymbolTable labels = SymbolTable.labels();
+      for (int s = 0; s < trees.symbols.length; s++) {
+        trees.symbols[s] = labels.intern(readString(in));
+      }
+      int numTrees = in.getInt();
+      int numNodes = in.getInt();
+      trees.treeStarts = new int[numTrees + 1];
+      in.asIntBuffer().get(trees.treeStarts);
+      in.position(in.position() + 4 * trees.treeStarts.length);
+      trees.labels = slice(in, 4 * numNodes).asIntBuffer();
+      trees.arities = slice(in, 2 * numNodes).asCharBuffer();
+      return trees;
+    } catch (RuntimeException e) {
+      // BufferUnderflowException and friends: a truncated file
+      throw new IOException(file + " is corrupt", e);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /* The next length bytes of in, which it then skips. */
+  private static ByteBuffer slice(ByteBuffer in, int length) {
+    ByteBuffer slice = in.slice();
+    slice.limit(length);
+    in.position(in.position() + length);
+    return slice;
+  }
+
+  static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /* A growable int array. */
+  static class IntList {
+    int[] values = new int[1024];
+    int size = 0;
+
+    void add(int value) {
+      if (size == values.length)
+        values = Arrays.copyOf(values, 2 * size);
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package cs224n.io;
+
+import cs224n.ling.Tree;
+import cs224n.ling.Trees;
+import cs224n.util.SymbolTable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * The index of the treebank files in one directory, kept in a sidecar file
+ * (INDEX_NAME) in that directory.  For each file it records the file's
+ * length and modification time, and the byte offset where each of its trees
+ * starts, so that trees can be counted without parsing and read one at a
+ * time by seeking.  Entries whose file has changed are rebuilt by scanning
+ * the file.  If the directory cannot be written, the index is just kept in
+ * memory.
+ */
+class TreebankIndex {
+  static final String INDEX_NAME = ".treebank-index";
+  static final int MAGIC = 0x54424958; // "TBIX"
+  static final int VERSION = 1;
+
+  static class FileEntry {
+    long length;
+    long lastModified;
+    int[] treeStarts;
+
+    boolean isCurrent(File file) {
+      return file.length() == length && file.lastModified() == lastModified;
+    }
+  }
+
+  File directory;
+  Map<String, FileEntry> entries = new TreeMap<String, FileEntry>();
+  boolean dirty = false;
+
+  /**
+   * Returns the entry for the given file in this directory, scanning the
+   * file if the index has no current entry for it.
+   */
+  FileEntry getEntry(File file) {
+    FileEntry entry = entries.get(file.getName());
+    if (entry != null && entry.isCurrent(file))
+      return entry;
+    entry = scan(file);
+    entries.put(file.getName(), entry);
+    dirty = true;
+    return entry;
+  }
+
+  /**
+   * Reads the tree starting at the given byte offset of the file.  It ends
+   * before nextStart, or at the end of the file if nextStart is -1.
+   */
+  static Tree<String> readTree(File file, int start, int nextStart) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      int end = (nextStart < 0 ? (int) in.length() : nextStart);
+      byte[] bytes = new byte[end - start];
+      in.seek(start);
+      in.readFully(bytes);
+      Trees.PennTreeScanner scanner =
+        new Trees.PennTreeScanner(ByteBuffer.wrap(bytes), Charset.defaultCharset(), SymbolTable.labels());
+      return scanner.next();
+    } finally {
+      in.close();
+    }
+  }
+
+  /* Like iterating over the file's trees, a file that fails to parse
+   * counts the trees returned before the failure. */
+  private static FileEntry scan(File file) {
+    FileEntry entry = new FileEntry();
+    entry.length = file.length();
+    entry.lastModified = file.lastModified();
+    List<Integer> treeStarts = new ArrayList<Integer>();
+    try {
+      Trees.PennTreeScanner scanner = Trees.PennTreeScanner.open(file);
+      while (scanner.hasNext()) {
+        int treeStart = scanner.nextTreeStart();
+        scanner.next();
+        treeStarts.add(treeStart);
+      }
+    } catch (IOException e) {
+    } catch (RuntimeException e) {
+      System.err.println("bad file");
+    }
+    entry.treeStarts = new int[treeStarts.size()];
+    for (int i = 0; i < entry.treeStarts.length; i++) {
+      entry.treeStarts[i] = treeStarts.get(i);
+    }
+    return entry;
+  }
+
+  /**
+   * Writes the index back to its sidecar file if any entry was rebuilt.
+   * The index is written to a temporary file first and renamed, so
+   * concurrent readers never see a partial one.
+   */
+  void save() {
+    if (! dirty)
+      return;
+    File indexFile = new File(directory, INDEX_NAME);
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile(INDEX_NAME, ".tmp", directory);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, FileEntry> mapEntry : entries.entrySet()) {
+          FileEntry entry = mapEntry.getValue();
+          out.writeUTF(mapEntry.getKey());
+          out.writeLong(entry.length);
+          out.writeLong(entry.lastModified);
+          out.writeInt(entry.treeStarts.length);
+          for (int treeStart : entry.treeStarts) {
+            out.writeInt(treeStart);
+          }
+        }
+      } finally {
+        out.close();
+      }
+      if (! tempFile.renameTo(indexFile)) {
+        indexFile.delete();
+        tempFile.renameTo(indexFile);
+      }
+      dirty = false;
+    } catch (IOException e) {
+      // a read-only treebank: keep the index in memory only
+      if (tempFile != null)
+        tempFile.delete();
+    }
+  }
+
+  /**
+   * Loads the index of the given directory, or starts an empty one if it
+   * has none or it cannot be read.
+   */
+  static TreebankIndex load(File directory) {
+    TreebankIndex index = new TreebankIndex();
+    index.directory = directory;
+    File indexFile = new File(directory, INDEX_NAME);
+    if (! indexFile.isFile())
+      return index;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+          return index;
+        int numEntries = in.readInt();
+        for (int e = 0; e < numEntries; e++) {
+          String name = in.readUTF();
+          FileEntry entry = new FileEntry();
+          entry.length = in.readLong();
+          entry.lastModified = in.readLong();
+          entry.treeStarts = new int[in.readInt()];
+          for (int i = 0; i < entry.treeStarts.length; i++) {
+            entry.treeStarts[i] = in.readInt();
+          }
+          index.entries.put(name, entry);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      index.entries.clear();
+    }
+    return index;
+  }
+}
@@ -0,0 +1,276 @@
+package cs224n.ling;
+
+import cs224n.util.SymbolTable;
+
+import java.util.*;
+
+/**
+ * Holds a whole treebank of Tree<String>s in a few primitive arrays rather
+ * than as one object (and one child list) per node.  Nodes are numbered in
+ * preorder, tree after tree, so the nodes of tree t are treeStart(t) ..
+ * treeStart(t+1)-1 and its root is treeStart(t).  For every node the
+ * treebank stores a label id in a SymbolTable (-1 for a null label), its
+ * parent, first child and next sibling (-1 for none), and the span of
+ * leaves it covers, counted from the start of its tree.  A null tree,
+ * as the treebank normalizer gives for an empty tree, is kept in its
+ * place with no nodes, so that tree numbers match the list read.
+ *
+ * The getYield(), getPreTerminalYield() and toConstituentList() methods
+ * give the same lists as those of Tree, for a tree number.  getTree()
+ * rebuilds a Tree<String>, and asList() views the treebank as a list of
+ * them, rebuilt each time one is gotten, with null for a null tree.
+ * The other methods throw a NullPointerException for a null tree, as
+ * Tree's would.
+ */
+public class CompactTreebank {
+  SymbolTable symbols;
+  int numTrees;
+  int numNodes;
+  int[] treeStarts;
+  int[] labels;
+  int[] parents;
+  int[] firstChildren;
+  int[] nextSiblings;
+  int[] leafStarts;
+  int[] leafEnds;
+
+  /**
+   * Returns the number of trees.
+   */
+  public int size() {
+    return numTrees;
+  }
+
+  /**
+   * Returns the number of nodes, in all trees.
+   */
+  public int numNodes() {
+    return numNodes;
+  }
+
+  public int treeStart(int tree) {
+    return treeStarts[tree];
+  }
+
+  public boolean isNull(int tree) {
+    return treeStarts[tree] == treeStarts[tree + 1];
+  }
+
+  public SymbolTable getSymbols() {
+    return symbols;
+  }
+
+  public int getLabelId(int node) {
+    return labels[node];
+  }
+
+  public String getLabel(int node) {
+    return (labels[node] < 0 ? null : symbols.get(labels[node]));
+  }
+
+  public int getParent(int node) {
+    return parents[node];
+  }
+
+  public int getFirstChild(int node) {
+    return firstChildren[node];
+  }
+
+  public int getNextSibling(int node) {
+    return nextSiblings[node];
+  }
+
+  public int getLeafStart(int node) {
+    return leafStarts[node];
+  }
+
+  public int getLeafEnd(int node) {
+    return leafEnds[node];
+  }
+
+  public boolean isLeaf(int node) {
+    return firstChildren[node] < 0;
+  }
+
+  public boolean isPreTerminal(int node) {
+    int child = firstChildren[node];
+    return child >= 0 && nextSiblings[child] < 0 && isLeaf(child);
+  }
+
+  /**
+   * The words at the leaves of the tree, left to right, like
+   * Tree.getYield().
+   */
+  public List<String> getYield(int tree) {
+    checkNotNull(tree);
+    List<String> yield = new ArrayList<String>(leafEnds[treeStarts[tree]]);
+    for (int node = treeStarts[tree]; node < treeStarts[tree + 1]; node++) {
+      if (isLeaf(node))
+        yield.add(getLabel(node));
+    }
+    return yield;
+  }
+
+  /**
+   * The tags of the tree's words, like Tree.getPreTerminalYield().
+   */
+  public List<String> getPreTerminalYield(int tree) {
+    checkNotNull(tree);
+    List<String> yield = new ArrayList<String>(leafEnds[treeStarts[tree]]);
+    int end = treeStarts[tree + 1];
+    for (int node = treeStarts[tree]; node < end; node++) {
+      if (isPreTerminal(node)) {
+        yield.add(getLabel(node));
+        node++; // skip the word
+      }
+    }
+    return yield;
+  }
+
+  /**
+   * The constituents of the tree, in the order of Tree.toConstituentList():
+   * every node but the leaves and pre-terminals, in postorder, over the
+   * span of leaves it covers.
+   */
+  public List<Constituent<String>> toConstituentList(int tree) {
+    checkNotNull(tree);
+    List<Constituent<String>> constituents = new ArrayList<Constituent<String>>();
+    appendConstituents(treeStarts[tree], constituents);
+    return constituents;
+  }
+
+  private void checkNotNull(int tree) {
+    if (isNull(tree))
+      throw new NullPointerException("tree " + tree + " is null");
+  }
+
+  private void appendConstituents(int node, List<Constituent<String>> constituents) {
+    if (isLeaf(node) || isPreTerminal(node))
+      return;
+    for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+      appendConstituents(child, constituents);
+    }
+    constituents.add(new Constituent<String>(getLabel(node), leafStarts[node], leafEnds[node]));
+  }
+
+  /**
+   * Rebuilds the tree as a Tree<String>, or returns null for a null tree.
+   */
+  public Tree<String> getTree(int tree) {
+    if (isNull(tree))
+      return null;
+    return buildTree(treeStarts[tree]);
+  }
+
+  private Tree<String> buildTree(int node) {
+    if (isLeaf(node))
+      return new Tree<String>(getLabel(node));
+    List<Tree<String>> children = new ArrayList<Tree<String>>();
+    for (int child = firstChildren[node]; child >= 0; child = nextSiblings[child]) {
+      children.add(buildTree(child));
+    }
+    return new Tree<String>(getLabel(node), children);
+  }
+
+  /**
+   * A read-only view of the treebank as a list of trees.  Each get()
+   * rebuilds its tree, so the list costs no more memory than the treebank.
+   */
+  public List<Tree<String>> asList() {
+    return new AbstractList<Tree<String>>() {
+      public Tree<String> get(int tree) {
+        return getTree(tree);
+      }
+
+      public int size() {
+        return numTrees;
+      }
+    };
+  }
+
+  /**
+   * Builds a compact treebank of the given trees, with labels in
+   * SymbolTable.labels().
+   */
+  public static CompactTreebank fromTrees(Iterable<Tree<String>> trees) {
+    return fromTrees(trees.iterator(), SymbolTable.labels());
+  }
+
+  public static CompactTreebank fromTrees(Iterator<Tree<String>> trees, SymbolTable symbols) {
+    CompactTreebank treebank = new CompactTreebank(symbols);
+    while (trees.hasNext()) {
+      treebank.add(trees.next());
+    }
+    treebank.trim();
+    return treebank;
+  }
+
+  private void add(Tree<String> tree) {
+    if (numTrees + 1 == treeStarts.length)
+      treeStarts = Arrays.copyOf(treeStarts, 2 * treeStarts.length);
+    if (tree != null)
+      addNode(tree, -1, 0);
+    numTrees++;
+    treeStarts[numTrees] = numNodes;
+  }
+
+  /* Adds the subtree in preorder, and returns the end of its leaf span. */
+  private int addNode(Tree<String> tree, int parent, int leafStart) {
+    if (numNodes == labels.length)
+      grow();
+    int node = numNodes++;
+    labels[node] = (tree.getLabel() == null ? -1 : symbols.idOf(tree.getLabel()));
+    parents[node] = parent;
+    firstChildren[node] = -1;
+    nextSiblings[node] = -1;
+    leafStarts[node] = leafStart;
+    int leafEnd = leafStart;
+    if (tree.isLeaf()) {
+      leafEnd++;
+    } else {
+      int previousChild = -1;
+      for (Tree<String> child : tree.getChildren()) {
+        int childNode = numNodes;
+        if (previousChild < 0)
+          firstChildren[node] = childNode;
+        else
+          nextSiblings[previousChild] = childNode;
+        leafEnd = addNode(child, node, leafEnd);
+        previousChild = childNode;
+      }
+    }
+    leafEnds[node] = leafEnd;
+    return leafEnd;
+  }
+
+  private void grow() {
+    int capacity = 2 * labels.length;
+    labels = Arrays.copyOf(labels, capacity);
+    parents = Arrays.copyOf(parents, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+    leafStarts = Arrays.copyOf(leafStarts, capacity);
+    leafEnds = Arrays.copyOf(leafEnds, capacity);
+  }
+
+  private void trim() {
+    treeStarts = Arrays.copyOf(treeStarts, numTrees + 1);
+    labels = Arrays.copyOf(labels, numNodes);
+    parents = Arrays.copyOf(parents, numNodes);
+    firstChildren = Arrays.copyOf(firstChildren, numNodes);
+    nextSiblings = Arrays.copyOf(nextSiblings, numNodes);
+    leafStarts = Arrays.copyOf(leafStarts, numNodes);
+    leafEnds = Arrays.copyOf(leafEnds, numNodes);
+  }
+
+  private CompactTreebank(SymbolTable symbols) {
+    this.symbols = symbols;
+    treeStarts = new int[16];
+    labels = new int[1024];
+    parents = new int[1024];
+    firstChildren = new int[1024];
+    nextSiblings = new int[1024];
+    leafStarts = new int[1024];
+    leafEnds = new int[1024];
+  }
+}
@@ -1,11 +1,17 @@
 package cs224n.ling;
 
 import cs224n.util.Filter;
+import cs224n.util.SymbolTable;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
@@ -141,7 +147,8 @@ public class Trees {
 			}
 			in.unread(ch);
 			//      System.out.println("Read text: ["+sb+"]");
-			return sb.toString().intern();
+			// SymbolTable.labels() keeps every label and word for good
+			return SymbolTable.labels().intern(sb.toString());
 		}
 		
 		public void readLeftParen() throws IOException {
@@ -321,6 +328,150 @@ public class Trees {
 		}
 	}
 
+	/**
+	 * Reads the same trees as PennTreeReader, but scans a buffer of bytes
+	 * directly instead of a Reader one character at a time.  Labels are
+	 * interned through a SymbolTable (by default SymbolTable.labels()),
+	 * straight from the bytes when they are ASCII.  The bytes must be in an
+	 * ASCII-compatible charset; other runs of bytes are decoded with it.
+	 */
+	public static class PennTreeScanner implements Iterator<Tree<String>> {
+		// Larger files are memory-mapped rather than read into the heap.
+		static final int MAP_THRESHOLD = 1 << 20;
+
+		ByteBuffer buffer;
+		int position;
+		int limit;
+		Charset charset;
+		SymbolTable symbols;
+		Tree<String> nextTree;
+		int nextTreeStart;
+
+		public boolean hasNext() {
+			return (nextTree != null);
+		}
+
+		public Tree<String> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tree<String> tree = nextTree;
+			nextTree = readRootTree();
+			return tree;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/* The index in the buffer of the '(' that starts the tree next()
+		 * will return. */
+		public int nextTreeStart() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return nextTreeStart;
+		}
+
+		private Tree<String> readRootTree() {
+			skipWhiteSpace();
+			if (position == limit || buffer.get(position) != '(')
+				return null;
+			nextTreeStart = position;
+			return readTree(true);
+		}
+
+		private Tree<String> readTree(boolean isRoot) {
+			expect('(');
+			skipWhiteSpace();
+			String label = readText();
+			if (label.length() == 0 && isRoot)
+				label = TreeReader.ROOT_LABEL;
+			List<Tree<String>> children = readChildren();
+			expect(')');
+			return new Tree<String>(label, children);
+		}
+
+		private List<Tree<String>> readChildren() {
+			skipWhiteSpace();
+			if (position == limit || buffer.get(position) != '(')
+				return Collections.singletonList(new Tree<String>(readText()));
+			List<Tree<String>> children = new ArrayList<Tree<String>>();
+			while (position < limit && buffer.get(position) != ')') {
+				children.add(readTree(false));
+				skipWhiteSpace();
+			}
+			return children;
+		}
+
+		private String readText() {
+			int start = position;
+			boolean ascii = true;
+			while (position < limit) {
+				byte b = buffer.get(position);
+				if (b == '(' || b == ')' || isWhiteSpace(b))
+					break;
+				if (b < 0)
+					ascii = false;
+				position++;
+			}
+			if (ascii)
+				return symbols.intern(buffer, start, position);
+			byte[] bytes = new byte[position - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(start + i);
+			}
+			return symbols.intern(new String(bytes, charset));
+		}
+
+		private void expect(char paren) {
+			skipWhiteSpace();
+			if (position == limit || buffer.get(position) != paren)
+				throw new RuntimeException("Format error reading tree.");
+			position++;
+		}
+
+		private void skipWhiteSpace() {
+			while (position < limit && isWhiteSpace(buffer.get(position))) {
+				position++;
+			}
+		}
+
+		private static boolean isWhiteSpace(byte b) {
+			return (b == ' ' || b == '\t' || b == '\f' || b == '\r' || b == '\n');
+		}
+
+		/* Reads the trees of a file, which FileReader would decode with the
+		 * default charset.  The file is closed before this returns. */
+		public static PennTreeScanner open(File file) throws IOException {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				ByteBuffer buffer;
+				if (size > MAP_THRESHOLD) {
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				} else {
+					buffer = ByteBuffer.allocate((int) size);
+					while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					}
+					buffer.flip();
+				}
+				return new PennTreeScanner(buffer, Charset.defaultCharset(), SymbolTable.labels());
+			} finally {
+				in.close();
+			}
+		}
+
+		/* Reads the trees in buffer's position .. limit. */
+		public PennTreeScanner(ByteBuffer buffer, Charset charset, SymbolTable symbols) {
+			this.buffer = buffer;
+			this.position = buffer.position();
+			this.limit = buffer.limit();
+			this.charset = charset;
+			this.symbols = symbols;
+			nextTree = readRootTree();
+		}
+	}
+
 	public static class GENIATreeReader extends TreeReader implements Iterator<Tree<String>> {
 	
 		public Tree<String> readRootTree() {
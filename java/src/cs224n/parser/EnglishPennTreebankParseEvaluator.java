@@ -87,6 +87,16 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
     }
 
+    /* Adds the counts accumulated by another evaluator to this one, so
+     * evaluators filled on separate threads can be combined. */
+    public void merge(AbstractEval<L> other) {
+      exact += other.exact;
+      total += other.total;
+      correctEvents += other.correctEvents;
+      guessedEvents += other.guessedEvents;
+      goldEvents += other.goldEvents;
+    }
+
     public void display(boolean verbose) {
       display(verbose, new PrintWriter(System.out, true));
     }
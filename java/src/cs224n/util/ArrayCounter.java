@@ -0,0 +1,224 @@
+package cs224n.util;
+
+import java.util.*;
+
+/**
+ * A Counter whose counts are primitive doubles in an array, rather than
+ * boxed Doubles in a Map.  Keys are kept in insertion order, next to their
+ * counts, and found through an open-addressing hash table of key indices
+ * with linear probing, so incrementCount() is a single probe of the table
+ * and allocates nothing once a key is present.  keySet() iterates in
+ * insertion order, like a Counter backed by a LinkedHashMap.  The total
+ * count is kept as a running sum of the increments, so totalCount() is
+ * constant time unless setCount() has been used since it was last called.
+ *
+ * Keys cannot be removed; like other Counters, the counter is not safe
+ * for concurrent modification.
+ */
+public class ArrayCounter<E> extends Counter<E> {
+  /* Counter's own map is left empty (and immutable) */
+  static class EmptyMapFactory<K,V> extends MapFactory<K,V> {
+    public Map<K,V> buildMap() {
+      return Collections.emptyMap();
+    }
+  }
+
+  Object[] keys;
+  double[] counts;
+  // table[slot] is 1 + the index of the key hashed there, or 0 if empty
+  int[] table;
+  int size = 0;
+  double total = 0.0;
+  boolean totalIsCurrent = true;
+
+  private static int hash(Object key) {
+    if (key == null)
+      return 0;
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /* Returns the slot of the key in table, or the empty slot where it
+   * would go. */
+  private int slot(Object key) {
+    int mask = table.length - 1;
+    int slot = hash(key) & mask;
+    while (true) {
+      int index = table[slot] - 1;
+      if (index < 0)
+        return slot;
+      Object other = keys[index];
+      if (key == null ? other == null : key.equals(other))
+        return slot;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private int indexOf(Object key) {
+    return table[slot(key)] - 1;
+  }
+
+  /* Returns the index of the key, adding it with count zero if needed. */
+  private int ensureIndex(E key) {
+    int slot = slot(key);
+    int index = table[slot] - 1;
+    if (index >= 0)
+      return index;
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, 2 * size);
+      counts = Arrays.copyOf(counts, 2 * size);
+    }
+    index = size++;
+    keys[index] = key;
+    table[slot] = index + 1;
+    if (2 * size > table.length)
+      rehash();
+    return index;
+  }
+
+  private void rehash() {
+    table = new int[2 * table.length];
+    int mask = table.length - 1;
+    for (int index = 0; index < size; index++) {
+      int slot = hash(keys[index]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = index + 1;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private E key(int index) {
+    return (E) keys[index];
+  }
+
+  public Set<E> keySet() {
+    return new AbstractSet<E>() {
+      public Iterator<E> iterator() {
+        return new Iterator<E>() {
+          int index = 0;
+
+          public boolean hasNext() {
+            return index < size;
+          }
+
+          public E next() {
+            if (index >= size)
+              throw new NoSuchElementException();
+            return key(index++);
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      public int size() {
+        return size;
+      }
+
+      public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+      }
+    };
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean containsKey(E key) {
+    return indexOf(key) >= 0;
+  }
+
+  public double getCount(E key) {
+    int index = indexOf(key);
+    if (index < 0)
+      return 0;
+    return counts[index];
+  }
+
+  public void setCount(E key, double count) {
+    // ensureIndex() may grow counts, so it must run first
+    int index = ensureIndex(key);
+    counts[index] = count;
+    totalIsCurrent = false;
+  }
+
+  public void incrementCount(E key, double increment) {
+    int index = ensureIndex(key);
+    counts[index] += increment;
+    total += increment;
+  }
+
+  public <T extends E> void incrementAll(Counter<T> counter) {
+    if (! (counter instanceof ArrayCounter)) {
+      super.incrementAll(counter);
+      return;
+    }
+    ArrayCounter<T> arrayCounter = (ArrayCounter<T>) counter;
+    for (int index = 0; index < arrayCounter.size; index++) {
+      incrementCount(arrayCounter.key(index), arrayCounter.counts[index]);
+    }
+  }
+
+  public double totalCount() {
+    if (! totalIsCurrent) {
+      total = 0.0;
+      for (int index = 0; index < size; index++) {
+        total += counts[index];
+      }
+      totalIsCurrent = true;
+    }
+    return total;
+  }
+
+  public E argMax() {
+    double maxCount = Double.NEGATIVE_INFINITY;
+    E maxKey = null;
+    for (int index = 0; index < size; index++) {
+      if (counts[index] > maxCount || maxKey == null) {
+        maxKey = key(index);
+        maxCount = counts[index];
+      }
+    }
+    return maxKey;
+  }
+
+  public PriorityQueue<E> asPriorityQueue() {
+    PriorityQueue<E> pq = new PriorityQueue<E>(size);
+    for (int index = 0; index < size; index++) {
+      pq.add(key(index), counts[index]);
+    }
+    return pq;
+  }
+
+  public ArrayCounter() {
+    this(8);
+  }
+
+  public ArrayCounter(int capacity) {
+    super(new EmptyMapFactory<E, Double>());
+    capacity = Math.max(capacity, 2);
+    keys = new Object[capacity];
+    counts = new double[capacity];
+    table = new int[Integer.highestOneBit(capacity - 1) << 2];
+  }
+
+  public static void main(String[] args) {
+    Counter<String> counter = new ArrayCounter<String>();
+    System.out.println(counter);
+    counter.incrementCount("planets", 7);
+    System.out.println(counter);
+    counter.incrementCount("planets", 1);
+    System.out.println(counter);
+    counter.setCount("suns", 1);
+    System.out.println(counter);
+    counter.setCount("aliens", 0);
+    System.out.println(counter);
+    System.out.println(counter.toString(2));
+    System.out.println("Total: " + counter.totalCount());
+  }
+}
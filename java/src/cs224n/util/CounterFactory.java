@@ -0,0 +1,32 @@
+package cs224n.util;
+
+import java.io.Serializable;
+
+/**
+ * The CounterFactory is a mechanism for specifying what kind of Counter is
+ * to be used by some object, as MapFactory does for maps.  For example, a
+ * CounterMap can keep its sub-counters in ArrayCounters by being given an
+ * ArrayCounterFactory.
+ */
+public abstract class CounterFactory<E> implements Serializable {
+
+  public static class MapCounterFactory<E> extends CounterFactory<E> {
+    MapFactory<E, Double> mf;
+
+    public MapCounterFactory(MapFactory<E, Double> mf) {
+      this.mf = mf;
+    }
+
+    public Counter<E> buildCounter() {
+      return new Counter<E>(mf);
+    }
+  }
+
+  public static class ArrayCounterFactory<E> extends CounterFactory<E> {
+    public Counter<E> buildCounter() {
+      return new ArrayCounter<E>();
+    }
+  }
+
+  public abstract Counter<E> buildCounter();
+}
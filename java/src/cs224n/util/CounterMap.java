@@ -15,7 +15,7 @@ import java.util.Set;
  */
 public class CounterMap<K, V> {
 
-  private MapFactory<V, Double> mf;
+  private CounterFactory<V> cf;
   private Map<K, Counter<V>> counterMap;
 
   // -----------------------------------------------------------------------
@@ -27,7 +27,12 @@ public class CounterMap<K, V> {
 
   public CounterMap(MapFactory<K, Counter<V>> outerMF, 
                     MapFactory<V, Double> innerMF) {
-    mf = innerMF;
+    this(outerMF, new CounterFactory.MapCounterFactory<V>(innerMF));
+  }
+
+  public CounterMap(MapFactory<K, Counter<V>> outerMF, 
+                    CounterFactory<V> innerCF) {
+    cf = innerCF;
     counterMap = outerMF.buildMap();
   }
 
@@ -36,7 +41,7 @@ public class CounterMap<K, V> {
   protected Counter<V> ensureCounter(K key) {
     Counter<V> valueCounter = counterMap.get(key);
     if (valueCounter == null) {
-      valueCounter = new Counter<V>(mf);
+      valueCounter = cf.buildCounter();
       counterMap.put(key, valueCounter);
     }
     return valueCounter;
@@ -0,0 +1,252 @@
+package cs224n.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A priority queue over the integer keys 0 .. maxKey-1, based on a binary
+ * heap like PriorityQueue.  Unlike PriorityQueue, each key is in the queue
+ * at most once, and the heap position of every key is tracked, so
+ * containment, removal and promotion (the decreaseKey operation of a
+ * min-heap; here priorities are maximized) all take logarithmic time or
+ * less.  This makes it suitable as the agenda of a best-first search.
+ */
+public class IndexedPriorityQueue {
+  int size;
+  int[] keys;
+  double[] priorities;
+  int[] locations;
+
+  protected int parent(int loc) {
+    return (loc - 1) / 2;
+  }
+
+  protected int leftChild(int loc) {
+    return 2 * loc + 1;
+  }
+
+  protected int rightChild(int loc) {
+    return 2 * loc + 2;
+  }
+
+  protected void heapifyUp(int loc) {
+    while (loc > 0) {
+      int parent = parent(loc);
+      if (priorities[loc] <= priorities[parent])
+        return;
+      swap(loc, parent);
+      loc = parent;
+    }
+  }
+
+  protected void heapifyDown(int loc) {
+    while (true) {
+      int max = loc;
+      int leftChild = leftChild(loc);
+      if (leftChild < size && priorities[leftChild] > priorities[max])
+        max = leftChild;
+      int rightChild = rightChild(loc);
+      if (rightChild < size && priorities[rightChild] > priorities[max])
+        max = rightChild;
+      if (max == loc)
+        return;
+      swap(loc, max);
+      loc = max;
+    }
+  }
+
+  protected void swap(int loc1, int loc2) {
+    double tempPriority = priorities[loc1];
+    int tempKey = keys[loc1];
+    priorities[loc1] = priorities[loc2];
+    keys[loc1] = keys[loc2];
+    priorities[loc2] = tempPriority;
+    keys[loc2] = tempKey;
+    locations[keys[loc1]] = loc1;
+    locations[keys[loc2]] = loc2;
+  }
+
+  /**
+   * Returns true if the priority queue is non-empty
+   */
+  public boolean hasNext() {
+    return ! isEmpty();
+  }
+
+  /**
+   * Returns the key in the queue with highest priority, and pops it from
+   * the queue.
+   */
+  public int next() {
+    int first = peek();
+    remove(first);
+    return first;
+  }
+
+  /**
+   * Returns the highest-priority key in the queue, but does not pop it.
+   */
+  public int peek() {
+    if (size > 0)
+      return keys[0];
+    throw new NoSuchElementException();
+  }
+
+  /**
+   * Gets the priority of the highest-priority key of the queue.
+   */
+  public double getPriority() {
+    if (size > 0)
+      return priorities[0];
+    throw new NoSuchElementException();
+  }
+
+  /**
+   * Gets the priority of the given key, which must be in the queue.
+   */
+  public double getPriority(int key) {
+    if (! contains(key))
+      throw new NoSuchElementException();
+    return priorities[locations[key]];
+  }
+
+  /**
+   * Number of keys in the queue.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * True if the queue is empty (size == 0).
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Constant time containment test.
+   */
+  public boolean contains(int key) {
+    return locations[key] >= 0;
+  }
+
+  /**
+   * Adds a key to the queue with the given priority, or, if the key is
+   * already in the queue, changes its priority (up or down).
+   *
+   * @param key
+   * @param priority
+   */
+  public void setPriority(int key, double priority) {
+    int loc = locations[key];
+    if (loc < 0) {
+      loc = size++;
+      keys[loc] = key;
+      locations[key] = loc;
+      priorities[loc] = priority;
+      heapifyUp(loc);
+      return;
+    }
+    double oldPriority = priorities[loc];
+    priorities[loc] = priority;
+    if (priority > oldPriority)
+      heapifyUp(loc);
+    else
+      heapifyDown(loc);
+  }
+
+  /**
+   * Adds a key to the queue with the given priority, or raises its priority
+   * if it is already in the queue with a lower one.  Returns whether the
+   * queue changed.
+   *
+   * @param key
+   * @param priority
+   */
+  public boolean promote(int key, double priority) {
+    int loc = locations[key];
+    if (loc >= 0 && priorities[loc] >= priority)
+      return false;
+    setPriority(key, priority);
+    return true;
+  }
+
+  /**
+   * Removes a key from the queue, if present.
+   */
+  public boolean remove(int key) {
+    int loc = locations[key];
+    if (loc < 0) return false;
+    size--;
+    if (loc != size) {
+      swap(loc, size);
+      heapifyDown(loc);
+      heapifyUp(loc);
+    }
+    locations[key] = -1;
+    return true;
+  }
+
+  /**
+   * Empties the queue.  This takes time linear in the queue's size, not in
+   * the number of possible keys.
+   */
+  public void clear() {
+    for (int loc = 0; loc < size; loc++) {
+      locations[keys[loc]] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Returns a representation of the queue in decreasing priority order.
+   */
+  public String toString() {
+    IndexedPriorityQueue pq = new IndexedPriorityQueue(locations.length);
+    for (int loc = 0; loc < size; loc++) {
+      pq.setPriority(keys[loc], priorities[loc]);
+    }
+    StringBuilder sb = new StringBuilder("[");
+    while (pq.hasNext()) {
+      double priority = pq.getPriority();
+      sb.append(pq.next());
+      sb.append(" : ");
+      sb.append(priority);
+      if (pq.hasNext())
+        sb.append(", ");
+    }
+    sb.append("]");
+    return sb.toString();
+  }
+
+  /**
+   * Builds an empty queue for the keys 0 .. maxKey-1.  The queue allocates
+   * its full capacity up front, so it never grows.
+   */
+  public IndexedPriorityQueue(int maxKey) {
+    keys = new int[maxKey];
+    priorities = new double[maxKey];
+    locations = new int[maxKey];
+    Arrays.fill(locations, -1);
+  }
+
+  public static void main(String[] args) {
+    IndexedPriorityQueue pq = new IndexedPriorityQueue(5);
+    System.out.println(pq);
+    pq.setPriority(1, 1);
+    System.out.println(pq);
+    pq.setPriority(3, 3);
+    System.out.println(pq);
+    pq.promote(1, 1.1);
+    System.out.println(pq);
+    pq.setPriority(2, 2);
+    pq.promote(3, 0.5);
+    System.out.println(pq);
+    pq.setPriority(3, 0.5);
+    System.out.println(pq);
+    while (pq.hasNext()) {
+      System.out.println(pq.next());
+    }
+  }
+}
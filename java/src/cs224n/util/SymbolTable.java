@@ -0,0 +1,234 @@
+package cs224n.util;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Collection;
+
+/**
+ * Maps symbols (strings) to contiguous integer ids from 0, like Index, and
+ * canonicalizes them, like Interner: the canonical version of a symbol is
+ * the first string equal to it that was added.  Symbols can also be looked
+ * up straight from a range of bytes, without first building a String, as
+ * long as the bytes are ASCII.  This is what lets a tree reader intern its
+ * labels while scanning raw input.
+ *
+ * SymbolTable.labels() is the table shared by the tree readers and tree
+ * annotations, in place of String.intern(); grammars and lexicons keep
+ * their own tables of dense ids.  As a List, a table holds its symbols in
+ * id order, which is how it is saved (see cs224n.assignments.ModelFile).
+ *
+ * A table never removes a symbol.  Unlike String.intern(), whose strings
+ * can be garbage collected, SymbolTable.labels() is an unbounded cache:
+ * every label and word of every tree read in the process stays in it
+ * until the process exits.  That is the treebank's vocabulary, which is
+ * what training keeps anyway, but a long-running process that reads
+ * ever-new text should read it with its own table.
+ *
+ * The table is safe for concurrent use, and lookups take no lock.  Entries
+ * are immutable and published through the volatile bucket array, so a
+ * lookup sees every symbol whose add() has returned; one that misses a
+ * symbol being added concurrently simply reports it absent, as it would
+ * had it run first.  Only adding a symbol takes the lock.
+ */
+public class SymbolTable extends AbstractList<String> {
+  static final class Entry {
+    final String symbol;
+    final int id;
+    final int hash;
+    final Entry next;
+
+    Entry(String symbol, int id, int hash, Entry next) {
+      this.symbol = symbol;
+      this.id = id;
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  private static final SymbolTable labels = new SymbolTable();
+
+  volatile Entry[] buckets;
+  volatile String[] symbols;
+  volatile int size;
+
+  /**
+   * The table shared by the tree readers and tree annotations.  It lives
+   * as long as the process and only grows.
+   */
+  public static SymbolTable labels() {
+    return labels;
+  }
+
+  /**
+   * Returns the number of symbols in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the symbol with the given id.
+   */
+  public String get(int id) {
+    String[] symbols = this.symbols;
+    if (id < symbols.length && symbols[id] != null)
+      return symbols[id];
+    synchronized (this) {
+      if (id >= size)
+        throw new IndexOutOfBoundsException("no symbol " + id);
+      return this.symbols[id];
+    }
+  }
+
+  /**
+   * Returns the id of the given symbol, or -1 if it is not in the table.
+   */
+  public int indexOf(Object o) {
+    if (! (o instanceof String))
+      return -1;
+    String symbol = (String) o;
+    Entry entry = find(symbol, symbol.hashCode());
+    return (entry == null ? -1 : entry.id);
+  }
+
+  /**
+   * Constant time override for contains.
+   */
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  /**
+   * Adds a symbol to the table.  If it is already in the table, the table
+   * is unchanged (and false is returned).
+   */
+  public synchronized boolean add(String symbol) {
+    int hash = symbol.hashCode();
+    if (find(symbol, hash) != null)
+      return false;
+    insert(symbol, hash);
+    return true;
+  }
+
+  /**
+   * Returns the id of the given symbol, adding it if necessary.
+   */
+  public int idOf(String symbol) {
+    return lookup(symbol).id;
+  }
+
+  /**
+   * Returns the canonical version of the given symbol, adding it if
+   * necessary.
+   */
+  public String intern(String symbol) {
+    return lookup(symbol).symbol;
+  }
+
+  /**
+   * Returns the canonical version of the symbol spelled by the ASCII bytes
+   * buffer[start .. end-1], adding it if necessary.  Callers decode other
+   * bytes to a String themselves and use intern(String).
+   */
+  public String intern(ByteBuffer buffer, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buffer.get(i);
+    }
+    Entry entry = find(buffer, start, end, hash);
+    if (entry != null)
+      return entry.symbol;
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++) {
+      chars[i - start] = (char) buffer.get(i);
+    }
+    return lookup(new String(chars)).symbol;
+  }
+
+  private Entry lookup(String symbol) {
+    int hash = symbol.hashCode();
+    Entry entry = find(symbol, hash);
+    if (entry != null)
+      return entry;
+    synchronized (this) {
+      entry = find(symbol, hash);
+      if (entry != null)
+        return entry;
+      return insert(symbol, hash);
+    }
+  }
+
+  private Entry find(String symbol, int hash) {
+    Entry[] buckets = this.buckets;
+    for (Entry entry = buckets[hash & (buckets.length - 1)]; entry != null; entry = entry.next) {
+      if (entry.hash == hash && entry.symbol.equals(symbol))
+        return entry;
+    }
+    return null;
+  }
+
+  private Entry find(ByteBuffer buffer, int start, int end, int hash) {
+    Entry[] buckets = this.buckets;
+    int length = end - start;
+    entries:
+    for (Entry entry = buckets[hash & (buckets.length - 1)]; entry != null; entry = entry.next) {
+      if (entry.hash != hash || entry.symbol.length() != length)
+        continue;
+      for (int i = 0; i < length; i++) {
+        if (entry.symbol.charAt(i) != buffer.get(start + i))
+          continue entries;
+      }
+      return entry;
+    }
+    return null;
+  }
+
+  /* Called holding the lock. */
+  private Entry insert(String symbol, int hash) {
+    int id = size;
+    String[] symbols = this.symbols;
+    if (id == symbols.length) {
+      String[] grown = new String[2 * symbols.length];
+      System.arraycopy(symbols, 0, grown, 0, id);
+      symbols = grown;
+    }
+    symbols[id] = symbol;
+    this.symbols = symbols;
+    Entry[] buckets = this.buckets;
+    if (id >= buckets.length * 3 / 4)
+      buckets = rehash(buckets);
+    int bucket = hash & (buckets.length - 1);
+    Entry entry = new Entry(symbol, id, hash, buckets[bucket]);
+    buckets[bucket] = entry;
+    this.buckets = buckets;
+    size = id + 1;
+    return entry;
+  }
+
+  /* Builds a table of twice the size, leaving the old one intact for
+   * concurrent readers. */
+  private static Entry[] rehash(Entry[] buckets) {
+    Entry[] rehashed = new Entry[2 * buckets.length];
+    for (int b = 0; b < buckets.length; b++) {
+      for (Entry entry = buckets[b]; entry != null; entry = entry.next) {
+        int bucket = entry.hash & (rehashed.length - 1);
+        rehashed[bucket] = new Entry(entry.symbol, entry.id, entry.hash, rehashed[bucket]);
+      }
+    }
+    return rehashed;
+  }
+
+  public SymbolTable() {
+    buckets = new Entry[64];
+    symbols = new String[64];
+  }
+
+  /**
+   * Builds a table of the given symbols, numbered in iteration order
+   * (skipping repeats).
+   */
+  public SymbolTable(Collection<String> symbols) {
+    this();
+    addAll(symbols);
+  }
+}